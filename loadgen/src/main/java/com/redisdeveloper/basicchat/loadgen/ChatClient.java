@@ -0,0 +1,85 @@
+package com.redisdeveloper.basicchat.loadgen;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.IOException;
+import java.net.CookieManager;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A simulated user: its own HTTP client and session cookie, logged in on one node, sending messages to it the way
+ * the web client does.
+ */
+class ChatClient {
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(30);
+
+    private final NodeStats node;
+    private final HttpClient httpClient;
+    private JsonObject user;
+
+    ChatClient(NodeStats node) {
+        this.node = node;
+        this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .cookieHandler(new CookieManager())
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+    }
+
+    NodeStats getNode() {
+        return node;
+    }
+
+    HttpClient getHttpClient() {
+        return httpClient;
+    }
+
+    int getUserId() {
+        return user.get("id").getAsInt();
+    }
+
+    void login(String username, String password) throws IOException, InterruptedException {
+        JsonObject loginData = new JsonObject();
+        loginData.addProperty("username", username);
+        loginData.addProperty("password", password);
+        HttpRequest request = HttpRequest.newBuilder(node.url.resolve("/auth/login"))
+                .timeout(REQUEST_TIMEOUT)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(loginData.toString()))
+                .build();
+        HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200) {
+            throw new IOException("Login of " + username + " on " + node.url + " failed: HTTP "
+                    + response.statusCode());
+        }
+        user = JsonParser.parseString(response.body()).getAsJsonObject();
+    }
+
+    /**
+     * Send a message to a room, completed with the HTTP status of the response.
+     */
+    CompletableFuture<Integer> emit(String roomId, String text) {
+        JsonObject message = new JsonObject();
+        message.addProperty("from", String.valueOf(getUserId()));
+        message.addProperty("date", System.currentTimeMillis() / 1000);
+        message.addProperty("message", text);
+        message.addProperty("roomId", roomId);
+        JsonObject body = new JsonObject();
+        body.addProperty("type", "message");
+        body.add("user", user);
+        body.addProperty("data", message.toString());
+        HttpRequest request = HttpRequest.newBuilder(node.url.resolve("/chat/emit"))
+                .timeout(REQUEST_TIMEOUT)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body.toString()))
+                .build();
+        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                .thenApply(HttpResponse::statusCode);
+    }
+}
@@ -0,0 +1,239 @@
+package com.redisdeveloper.basicchat.loadgen;
+
+import org.HdrHistogram.Histogram;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * End-to-end load test of the chat app: simulated users log in through /auth/login, hold /chat/stream connections
+ * and send messages to a room through /chat/emit at a fixed rate. Every message carries the time it was scheduled,
+ * so each stream measures its publish-to-delivery latency.
+ *
+ * The test runs in steps of a fixed rate, increasing with --ramp until a step isn't sustained: all the messages sent
+ * on time and accepted, at least 99.9% of the deliveries received, and the p99 delivery latency within the SLO.
+ * The messages are stored like any other, so run it against a throwaway Redis.
+ */
+public class LoadGenerator {
+
+    private static final double SUSTAINED_SEND_RATIO = 0.95;
+    private static final double SUSTAINED_DELIVERY_RATIO = 0.999;
+    // Time left to the deliveries of a step to arrive before it is measured.
+    private static final long DRAIN_MILLIS = 5000;
+
+    private final LoadOptions options;
+    private final String markerPrefix = "loadgen:" + UUID.randomUUID().toString().substring(0, 8) + ":";
+    private final List<NodeStats> nodes = new ArrayList<>();
+    private final List<ChatClient> clients = new ArrayList<>();
+    private final List<StreamClient> streams = new ArrayList<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile int currentStep;
+    private long behind;
+
+    LoadGenerator(LoadOptions options) {
+        this.options = options;
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadOptions options;
+        try {
+            options = LoadOptions.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(LoadOptions.USAGE);
+            System.exit(2);
+            return;
+        }
+        new LoadGenerator(options).run();
+        System.exit(0);
+    }
+
+    int getCurrentStep() {
+        return currentStep;
+    }
+
+    void run() throws Exception {
+        for (URI url : options.urls) {
+            nodes.add(new NodeStats(url));
+        }
+        login();
+        openStreams();
+
+        if (options.warmupSeconds > 0) {
+            System.out.printf("Warming up at %d messages/s for %d s%n", options.startRate, options.warmupSeconds);
+            runStep(options.startRate, options.warmupSeconds);
+        }
+
+        int sustainedRate = 0;
+        for (int rate = options.startRate; rate <= options.maxRate; rate += options.rateStep) {
+            boolean sustained = report(rate, runStep(rate, options.durationSeconds));
+            if (!sustained) {
+                break;
+            }
+            sustainedRate = rate;
+            if (options.rateStep <= 0) {
+                break;
+            }
+        }
+        for (StreamClient stream : streams) {
+            stream.close();
+        }
+
+        System.out.println();
+        if (sustainedRate == 0) {
+            System.out.printf("No rate sustained from %d messages/s%n", options.startRate);
+        } else {
+            System.out.printf(Locale.ROOT,
+                    "Max sustained: %d messages/s (%.1f per node), %d deliveries/s to %d streams%n",
+                    sustainedRate, (double) sustainedRate / nodes.size(), (long) sustainedRate * streams.size(),
+                    streams.size());
+        }
+    }
+
+    private void login() throws Exception {
+        for (int i = 0; i < options.users; i++) {
+            ChatClient client = new ChatClient(nodes.get(i % nodes.size()));
+            client.login(options.usernames.get(i % options.usernames.size()), options.password);
+            clients.add(client);
+        }
+        System.out.printf("Logged in %d users on %d nodes%n", clients.size(), nodes.size());
+    }
+
+    private void openStreams() throws Exception {
+        List<CompletableFuture<Void>> opened = new ArrayList<>();
+        for (int i = 0; i < options.streams; i++) {
+            // Spread over the nodes independently of the users, so every node holds streams even with few users.
+            ChatClient owner = clients.get(i % clients.size());
+            NodeStats node = nodes.get(i % nodes.size());
+            if (owner.getNode() != node) {
+                for (ChatClient client : clients) {
+                    if (client.getNode() == node) {
+                        owner = client;
+                        break;
+                    }
+                }
+            }
+            StreamClient stream = new StreamClient(owner, markerPrefix, this);
+            owner.getNode().streams++;
+            streams.add(stream);
+            opened.add(stream.open());
+        }
+        CompletableFuture.allOf(opened.toArray(new CompletableFuture[0])).get(60, TimeUnit.SECONDS);
+        System.out.printf("Opened %d streams%n", streams.size());
+    }
+
+    /**
+     * Send messages at the given rate for the given time, then wait for their deliveries.
+     */
+    private List<NodeStats.Step> runStep(int rate, int seconds) throws InterruptedException {
+        currentStep++;
+        behind = 0;
+        for (NodeStats node : nodes) {
+            node.takeStep();
+        }
+
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(seconds);
+        for (long i = 0; ; i++) {
+            long scheduled = start + i * TimeUnit.SECONDS.toNanos(1) / rate;
+            if (scheduled >= end) {
+                break;
+            }
+            long wait;
+            while ((wait = scheduled - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            if (inFlight.get() >= options.maxInFlight) {
+                // The app doesn't keep up, this message is skipped rather than delaying the next ones.
+                behind++;
+                continue;
+            }
+            ChatClient client = clients.get((int) (i % clients.size()));
+            NodeStats node = client.getNode();
+            inFlight.incrementAndGet();
+            client.emit(options.room, markerPrefix + currentStep + ":" + scheduled).whenComplete((status, error) -> {
+                inFlight.decrementAndGet();
+                if (error == null && status == 200) {
+                    node.recordEmit(scheduled);
+                    node.sent.increment();
+                } else {
+                    node.emitErrors.increment();
+                }
+            });
+        }
+
+        long drainEnd = System.currentTimeMillis() + DRAIN_MILLIS;
+        while (System.currentTimeMillis() < drainEnd && (inFlight.get() > 0 || delivered() < sent() * streams.size())) {
+            Thread.sleep(50);
+        }
+        List<NodeStats.Step> steps = new ArrayList<>();
+        for (NodeStats node : nodes) {
+            steps.add(node.takeStep());
+        }
+        return steps;
+    }
+
+    private long sent() {
+        return nodes.stream().mapToLong(node -> node.sent.sum()).sum();
+    }
+
+    private long delivered() {
+        return nodes.stream().mapToLong(node -> node.delivered.sum()).sum();
+    }
+
+    /**
+     * Print the measurements of a step, and whether its rate was sustained.
+     */
+    private boolean report(int rate, List<NodeStats.Step> steps) {
+        long sent = 0;
+        long errors = 0;
+        long delivered = 0;
+        long reconnects = 0;
+        Histogram deliveryLatency = new Histogram(3);
+        for (NodeStats.Step step : steps) {
+            sent += step.sent;
+            errors += step.emitErrors;
+            delivered += step.delivered;
+            reconnects += step.reconnects;
+            deliveryLatency.add(step.deliveryLatency);
+        }
+        long expected = sent * streams.size();
+        double deliveryRatio = expected == 0 ? 1 : (double) delivered / expected;
+        long scheduled = (long) rate * options.durationSeconds;
+
+        System.out.println();
+        System.out.printf(Locale.ROOT,
+                "%d messages/s: sent %d/%d, %d errors, %d behind, delivered %d/%d (%.2f%%), %d reconnects%n",
+                rate, sent, scheduled, errors, behind, delivered, expected, deliveryRatio * 100, reconnects);
+        for (int i = 0; i < nodes.size(); i++) {
+            NodeStats.Step step = steps.get(i);
+            System.out.printf(Locale.ROOT, "  %s: %d streams, %.1f messages/s%n", nodes.get(i).url,
+                    nodes.get(i).streams, (double) step.sent / options.durationSeconds);
+            System.out.println("    emit      " + percentiles(step.emitLatency));
+            System.out.println("    delivery  " + percentiles(step.deliveryLatency));
+        }
+        System.out.println("  all delivery  " + percentiles(deliveryLatency));
+
+        boolean sustained = errors == 0 && sent >= scheduled * SUSTAINED_SEND_RATIO
+                && deliveryRatio >= SUSTAINED_DELIVERY_RATIO
+                && deliveryLatency.getValueAtPercentile(99) / 1000.0 <= options.sloP99Millis;
+        System.out.println(sustained ? "  => sustained" : "  => not sustained");
+        return sustained;
+    }
+
+    private static String percentiles(Histogram latency) {
+        if (latency.getTotalCount() == 0) {
+            return "no samples";
+        }
+        return String.format(Locale.ROOT, "p50 %.2f ms, p99 %.2f ms, p99.9 %.2f ms, max %.2f ms (%d samples)",
+                latency.getValueAtPercentile(50) / 1000.0, latency.getValueAtPercentile(99) / 1000.0,
+                latency.getValueAtPercentile(99.9) / 1000.0, latency.getMaxValue() / 1000.0, latency.getTotalCount());
+    }
+}
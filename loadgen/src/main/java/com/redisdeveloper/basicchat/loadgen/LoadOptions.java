@@ -0,0 +1,125 @@
+package com.redisdeveloper.basicchat.loadgen;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Command line options, given as "--name value" or "--name=value".
+ */
+class LoadOptions {
+
+    static final String USAGE = String.join("\n",
+            "Options:",
+            "  --url URL[,URL...]     nodes of the chat app, users and streams are spread over them",
+            "                         (http://localhost:8080)",
+            "  --users N              simulated users, each logs in with its own session (4)",
+            "  --usernames A,B,...    existing users the simulated ones log in as, in turn (Pablo,Joe,Mary,Alex)",
+            "  --password PASSWORD    password of those users (password123)",
+            "  --streams M            open /chat/stream connections, spread over the users (100)",
+            "  --room ID              room the messages are sent to, all the users must be members of it (0)",
+            "  --rate R               messages per second sent through /chat/emit (50)",
+            "  --ramp START:STEP:MAX  increase the rate by STEP after each step until MAX or the first failed step",
+            "  --duration SECONDS     length of each step (30)",
+            "  --warmup SECONDS       unmeasured step at the first rate (5)",
+            "  --slo-p99-ms MS        highest p99 delivery latency of a sustained step (250)",
+            "  --max-in-flight N      emits waiting for a response before the sender counts itself behind (512)");
+
+    List<URI> urls = new ArrayList<>(List.of(URI.create("http://localhost:8080")));
+    int users = 4;
+    List<String> usernames = List.of("Pablo", "Joe", "Mary", "Alex");
+    String password = "password123";
+    int streams = 100;
+    String room = "0";
+    int startRate = 50;
+    int rateStep = 0;
+    int maxRate = 50;
+    int durationSeconds = 30;
+    int warmupSeconds = 5;
+    double sloP99Millis = 250;
+    int maxInFlight = 512;
+
+    static LoadOptions parse(String[] args) {
+        Map<String, String> values = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument: " + arg);
+            }
+            int equals = arg.indexOf('=');
+            if (equals > 0) {
+                values.put(arg.substring(2, equals), arg.substring(equals + 1));
+            } else if (i + 1 < args.length) {
+                values.put(arg.substring(2), args[++i]);
+            } else {
+                throw new IllegalArgumentException("Missing value of " + arg);
+            }
+        }
+
+        LoadOptions options = new LoadOptions();
+        for (Map.Entry<String, String> option : values.entrySet()) {
+            String value = option.getValue();
+            switch (option.getKey()) {
+                case "url":
+                    options.urls.clear();
+                    for (String url : value.split(",")) {
+                        options.urls.add(URI.create(url.endsWith("/") ? url.substring(0, url.length() - 1) : url));
+                    }
+                    break;
+                case "users":
+                    options.users = Integer.parseInt(value);
+                    break;
+                case "usernames":
+                    options.usernames = Arrays.asList(value.split(","));
+                    break;
+                case "password":
+                    options.password = value;
+                    break;
+                case "streams":
+                    options.streams = Integer.parseInt(value);
+                    break;
+                case "room":
+                    options.room = value;
+                    break;
+                case "rate":
+                    options.startRate = Integer.parseInt(value);
+                    options.maxRate = options.startRate;
+                    break;
+                case "duration":
+                    options.durationSeconds = Integer.parseInt(value);
+                    break;
+                case "warmup":
+                    options.warmupSeconds = Integer.parseInt(value);
+                    break;
+                case "slo-p99-ms":
+                    options.sloP99Millis = Double.parseDouble(value);
+                    break;
+                case "max-in-flight":
+                    options.maxInFlight = Integer.parseInt(value);
+                    break;
+                case "ramp":
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option --" + option.getKey());
+            }
+        }
+        // Applied last, so it wins over --rate whatever their order.
+        if (values.containsKey("ramp")) {
+            String[] ramp = values.get("ramp").split(":");
+            if (ramp.length != 3) {
+                throw new IllegalArgumentException("--ramp expects START:STEP:MAX");
+            }
+            options.startRate = Integer.parseInt(ramp[0]);
+            options.rateStep = Integer.parseInt(ramp[1]);
+            options.maxRate = Integer.parseInt(ramp[2]);
+        }
+        if (options.users < 1 || options.streams < 0 || options.startRate < 1 || options.durationSeconds < 1
+                || options.usernames.isEmpty()) {
+            throw new IllegalArgumentException("--users, --rate and --duration must be positive");
+        }
+        return options;
+    }
+}
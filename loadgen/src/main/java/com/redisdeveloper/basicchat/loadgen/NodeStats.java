@@ -0,0 +1,67 @@
+package com.redisdeveloper.basicchat.loadgen;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.net.URI;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measurements of one node of the chat app for the current step. The latencies are recorded in microseconds, from
+ * the time a message was scheduled to be sent, so a sender falling behind shows up in them rather than hiding it.
+ */
+class NodeStats {
+    // Up to a minute, with 3 significant digits.
+    private static final long HIGHEST_LATENCY_MICROS = 60_000_000L;
+
+    final URI url;
+    // Time until the /chat/emit response of the messages sent through this node.
+    final Recorder emitLatency = new Recorder(HIGHEST_LATENCY_MICROS, 3);
+    // Time until the messages were received by the streams opened on this node, whatever node they were sent to.
+    final Recorder deliveryLatency = new Recorder(HIGHEST_LATENCY_MICROS, 3);
+    final LongAdder sent = new LongAdder();
+    final LongAdder emitErrors = new LongAdder();
+    final LongAdder delivered = new LongAdder();
+    final LongAdder reconnects = new LongAdder();
+    int streams;
+
+    NodeStats(URI url) {
+        this.url = url;
+    }
+
+    void recordEmit(long scheduledNanos) {
+        emitLatency.recordValue(Math.min(HIGHEST_LATENCY_MICROS, (System.nanoTime() - scheduledNanos) / 1000));
+    }
+
+    void recordDelivery(long scheduledNanos) {
+        deliveryLatency.recordValue(Math.min(HIGHEST_LATENCY_MICROS, (System.nanoTime() - scheduledNanos) / 1000));
+        delivered.increment();
+    }
+
+    /**
+     * Measurements of the step, which start over for the next one.
+     */
+    Step takeStep() {
+        return new Step(emitLatency.getIntervalHistogram(), deliveryLatency.getIntervalHistogram(),
+                sent.sumThenReset(), emitErrors.sumThenReset(), delivered.sumThenReset(), reconnects.sumThenReset());
+    }
+
+    static class Step {
+        final Histogram emitLatency;
+        final Histogram deliveryLatency;
+        final long sent;
+        final long emitErrors;
+        final long delivered;
+        final long reconnects;
+
+        Step(Histogram emitLatency, Histogram deliveryLatency, long sent, long emitErrors, long delivered,
+             long reconnects) {
+            this.emitLatency = emitLatency;
+            this.deliveryLatency = deliveryLatency;
+            this.sent = sent;
+            this.emitErrors = emitErrors;
+            this.delivered = delivered;
+            this.reconnects = reconnects;
+        }
+    }
+}
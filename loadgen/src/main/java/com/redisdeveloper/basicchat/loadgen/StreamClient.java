@@ -0,0 +1,131 @@
+package com.redisdeveloper.basicchat.loadgen;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An open /chat/stream connection. The events are read line by line as they arrive, without a thread per stream,
+ * and the messages of the load generator are recognized by their text: "loadgen:{run}:{step}:{scheduled nanos}".
+ * Like a browser, the stream reconnects with the id of the last event it received when the server closes it
+ * (e.g. on the async request timeout), so the events it missed meanwhile are replayed.
+ */
+class StreamClient implements Flow.Subscriber<String> {
+    private static final long RECONNECT_DELAY_MILLIS = 100;
+
+    private final ChatClient owner;
+    private final String markerPrefix;
+    private final LoadGenerator generator;
+    private final CompletableFuture<Void> opened = new CompletableFuture<>();
+
+    private volatile Flow.Subscription subscription;
+    private volatile String lastEventId;
+    private volatile boolean closed;
+
+    StreamClient(ChatClient owner, String markerPrefix, LoadGenerator generator) {
+        this.owner = owner;
+        this.markerPrefix = markerPrefix;
+        this.generator = generator;
+    }
+
+    /**
+     * Open the stream, the future completes once the server accepted it.
+     */
+    CompletableFuture<Void> open() {
+        connect();
+        return opened;
+    }
+
+    void close() {
+        closed = true;
+        Flow.Subscription current = subscription;
+        if (current != null) {
+            current.cancel();
+        }
+    }
+
+    private void connect() {
+        URI uri = owner.getNode().url.resolve("/chat/stream?userId=" + owner.getUserId());
+        HttpRequest.Builder request = HttpRequest.newBuilder(uri).header("Accept", "text/event-stream");
+        if (lastEventId != null) {
+            request.header("Last-Event-ID", lastEventId);
+        }
+        owner.getHttpClient().sendAsync(request.build(), responseInfo -> {
+            if (responseInfo.statusCode() != 200) {
+                return HttpResponse.BodySubscribers.replacing(null);
+            }
+            return HttpResponse.BodySubscribers.fromLineSubscriber(this);
+        }).whenComplete((response, error) -> {
+            if (error != null || response.statusCode() != 200) {
+                opened.completeExceptionally(error != null ? error : new IllegalStateException(
+                        "Stream of user " + owner.getUserId() + ": HTTP " + response.statusCode()));
+                reconnect();
+            }
+        });
+    }
+
+    private void reconnect() {
+        if (closed || !opened.isDone() || opened.isCompletedExceptionally()) {
+            return;
+        }
+        owner.getNode().reconnects.increment();
+        CompletableFuture.delayedExecutor(RECONNECT_DELAY_MILLIS, TimeUnit.MILLISECONDS).execute(this::connect);
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        this.subscription = subscription;
+        opened.complete(null);
+        subscription.request(Long.MAX_VALUE);
+        if (closed) {
+            subscription.cancel();
+        }
+    }
+
+    @Override
+    public void onNext(String line) {
+        if (line.startsWith("id:")) {
+            lastEventId = line.substring(3).trim();
+        } else if (line.startsWith("data:")) {
+            int marker = line.indexOf(markerPrefix);
+            if (marker >= 0) {
+                onMarker(line, marker + markerPrefix.length());
+            }
+        }
+    }
+
+    private void onMarker(String line, int position) {
+        int separator = line.indexOf(':', position);
+        if (separator < 0) {
+            return;
+        }
+        int end = separator + 1;
+        while (end < line.length() && Character.isDigit(line.charAt(end))) {
+            end++;
+        }
+        try {
+            int step = Integer.parseInt(line.substring(position, separator));
+            long scheduledNanos = Long.parseLong(line.substring(separator + 1, end));
+            // Messages of a previous step arriving late are left out of the current one.
+            if (step == generator.getCurrentStep()) {
+                owner.getNode().recordDelivery(scheduledNanos);
+            }
+        } catch (NumberFormatException e) {
+            // Not one of ours after all.
+        }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        reconnect();
+    }
+
+    @Override
+    public void onComplete() {
+        reconnect();
+    }
+}
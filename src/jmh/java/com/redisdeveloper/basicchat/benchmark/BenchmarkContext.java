@@ -0,0 +1,31 @@
+package com.redisdeveloper.basicchat.benchmark;
+
+import com.redisdeveloper.basicchat.Application;
+import org.springframework.boot.Banner;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * The beans of the application without the web server, connected to the Redis of REDIS_ENDPOINT_URL
+ * (127.0.0.1:6379 by default). The benchmarks only write "bench" rooms and users which they remove afterwards,
+ * but the application creates its demo data in an empty database, so point them to a throwaway Redis.
+ */
+final class BenchmarkContext {
+
+    // Far above the ids of the registered users.
+    static final int FIRST_USER_ID = 1_000_000;
+
+    private BenchmarkContext() {
+    }
+
+    static ConfigurableApplicationContext start(String... properties) {
+        return new SpringApplicationBuilder(Application.class)
+                .web(WebApplicationType.NONE)
+                .bannerMode(Banner.Mode.OFF)
+                .logStartupInfo(false)
+                .properties("logging.level.root=WARN")
+                .properties(properties)
+                .run();
+    }
+}
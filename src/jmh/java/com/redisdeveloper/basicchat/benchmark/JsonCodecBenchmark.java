@@ -0,0 +1,65 @@
+package com.redisdeveloper.basicchat.benchmark;
+
+import com.redisdeveloper.basicchat.codec.JsonCodec;
+import com.redisdeveloper.basicchat.model.Message;
+import com.redisdeveloper.basicchat.model.MessageType;
+import com.redisdeveloper.basicchat.model.PubSubMessage;
+import com.redisdeveloper.basicchat.model.User;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding and decoding of the messages and events, no Redis involved.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonCodecBenchmark {
+
+    private final JsonCodec jsonCodec = new JsonCodec();
+
+    private Message message;
+    private String messageJson;
+    private byte[] storedMessage;
+    private String userEventJson;
+
+    @Setup
+    public void setUp() {
+        message = new Message("12", 1792299608, "Hello, how is it going? Lunch at noon?", "3:12");
+        message.setId(878439665102848L);
+        messageJson = jsonCodec.writeMessage(message);
+        storedMessage = jsonCodec.writeMessageBytes(message);
+        userEventJson = new String(jsonCodec.writeUserEvent(MessageType.USER_CONNECTED.value(),
+                new User(12, "Pablo", true)), StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public byte[] writeMessage() {
+        return jsonCodec.writeMessageBytes(message);
+    }
+
+    @Benchmark
+    public Message readMessage() {
+        return jsonCodec.readMessage(messageJson);
+    }
+
+    @Benchmark
+    public byte[] writeMessageEvent() {
+        return jsonCodec.writeMessageEvent(MessageType.MESSAGE.value(), message);
+    }
+
+    @Benchmark
+    public byte[] wrapMessageEvent() {
+        return jsonCodec.wrapMessageEvent(storedMessage);
+    }
+
+    @Benchmark
+    public PubSubMessage<User> readUserEvent() {
+        return jsonCodec.readUserEvent(userEventJson);
+    }
+}
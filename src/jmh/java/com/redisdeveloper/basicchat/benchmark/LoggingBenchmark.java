@@ -0,0 +1,78 @@
+package com.redisdeveloper.basicchat.benchmark;
+
+import ch.qos.logback.classic.Level;
+import com.redisdeveloper.basicchat.config.PayloadLogSampler;
+import com.redisdeveloper.basicchat.service.RedisMessageSubscriber;
+import org.openjdk.jmh.annotations.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.connection.DefaultMessage;
+import org.springframework.data.redis.connection.Message;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Debug statements of the hot paths with the debug level disabled, as in production. The gc profiler shows the
+ * garbage they leave: the guarded statements leave none, unlike the concatenated and formatted ones they replaced,
+ * or parameterized ones with primitive arguments, which are boxed into a varargs array before the level is checked.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoggingBenchmark {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RedisMessageSubscriber.class);
+
+    private final PayloadLogSampler payloadLogSampler = new PayloadLogSampler(100);
+
+    private Message message;
+    private String roomId;
+    // Beyond the cache of Integer.valueOf, like most offsets.
+    private int offset;
+    private int size;
+
+    @Setup
+    public void setUp() {
+        ((ch.qos.logback.classic.Logger) LOGGER).setLevel(Level.INFO);
+        message = new DefaultMessage("MESSAGES".getBytes(StandardCharsets.UTF_8),
+                ("{\"type\":\"message\",\"data\":"
+                        + "{\"from\":\"1\",\"date\":1792299608,\"message\":\"Hello\",\"roomId\":\"0\"}}")
+                        .getBytes(StandardCharsets.UTF_8));
+        roomId = "1:2";
+        offset = 1500;
+        size = 15;
+    }
+
+    @Benchmark
+    public void concatenated() {
+        LOGGER.debug("Received message in global subscriber: " + message.toString());
+    }
+
+    @Benchmark
+    public void formatted() {
+        LOGGER.debug(String.format("Received messages by roomId:%s, offset:%s, size:%s ", roomId, offset, size));
+    }
+
+    @Benchmark
+    public void parameterized() {
+        LOGGER.debug("Received messages by roomId:{}, offset:{}, size:{}", roomId, offset, size);
+    }
+
+    @Benchmark
+    public void guarded() {
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Received messages by roomId:{}, offset:{}, size:{}", roomId, offset, size);
+        }
+    }
+
+    @Benchmark
+    public void guardedSampledPayload() {
+        if (LOGGER.isDebugEnabled() && payloadLogSampler.sample()) {
+            LOGGER.debug("Received message in global subscriber: {}", message);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.redisdeveloper.basicchat.benchmark;
+
+import com.redisdeveloper.basicchat.controller.RoomsController;
+import com.redisdeveloper.basicchat.model.Message;
+import com.redisdeveloper.basicchat.model.Room;
+import com.redisdeveloper.basicchat.repository.MessageStore;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.http.ResponseEntity;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Listing the rooms of a user who is a member of N named rooms.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RoomsControllerBenchmark {
+
+    private static final int USER_ID = BenchmarkContext.FIRST_USER_ID;
+
+    @Param({"1", "10", "100"})
+    private int rooms;
+
+    private ConfigurableApplicationContext context;
+    private RoomsController roomsController;
+    private final List<String> keys = new ArrayList<>();
+
+    @Setup
+    public void setUp() {
+        context = BenchmarkContext.start();
+        roomsController = context.getBean(RoomsController.class);
+        StringRedisTemplate redisTemplate = context.getBean(StringRedisTemplate.class);
+        MessageStore messageStore = context.getBean(MessageStore.class);
+
+        String userRoomsKey = "user:" + USER_ID + ":rooms";
+        keys.add(userRoomsKey);
+        for (int i = 0; i < rooms; i++) {
+            String roomId = "bench-room-" + i;
+            redisTemplate.opsForSet().add(userRoomsKey, roomId);
+            redisTemplate.opsForValue().set("room:" + roomId + ":name", "Bench " + i);
+            messageStore.saveMessage(new Message(String.valueOf(USER_ID), 1792299608, "Hello", roomId));
+            keys.add("room:" + roomId + ":name");
+            keys.add(messageStore.getRoomKey(roomId));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.getBean(StringRedisTemplate.class).delete(keys);
+        context.close();
+    }
+
+    @Benchmark
+    public ResponseEntity<List<Room>> getRooms() {
+        return roomsController.getRooms(USER_ID);
+    }
+}
@@ -0,0 +1,82 @@
+package com.redisdeveloper.basicchat.benchmark;
+
+import com.redisdeveloper.basicchat.model.Message;
+import com.redisdeveloper.basicchat.repository.MessageStore;
+import com.redisdeveloper.basicchat.repository.RoomsRepository;
+import com.redisdeveloper.basicchat.service.MessageIdGenerator;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading a page of the history of a room and storing messages, round trips to Redis included.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RoomsRepositoryBenchmark {
+
+    private static final String READ_ROOM_ID = "bench-read";
+    private static final String WRITE_ROOM_ID = "bench-write";
+    private static final int HISTORY_SIZE = 1000;
+    private static final int PAGE_SIZE = 15;
+
+    @Param({"zset", "stream"})
+    private String storage;
+
+    @Param({"json", "binary"})
+    private String codec;
+
+    private ConfigurableApplicationContext context;
+    private RoomsRepository roomsRepository;
+    private MessageStore messageStore;
+    private MessageIdGenerator messageIdGenerator;
+
+    @Setup
+    public void setUp() {
+        context = BenchmarkContext.start("chat.storage=" + storage, "chat.storage.codec=" + codec);
+        roomsRepository = context.getBean(RoomsRepository.class);
+        messageStore = context.getBean(MessageStore.class);
+        messageIdGenerator = context.getBean(MessageIdGenerator.class);
+        deleteRooms();
+        for (int i = 0; i < HISTORY_SIZE; i++) {
+            messageStore.saveMessage(newMessage(READ_ROOM_ID));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        deleteRooms();
+        context.close();
+    }
+
+    @Benchmark
+    public List<byte[]> getMessages() {
+        return roomsRepository.getMessages(READ_ROOM_ID, 0, PAGE_SIZE);
+    }
+
+    @Benchmark
+    public void saveMessage() {
+        messageStore.saveMessage(newMessage(WRITE_ROOM_ID));
+    }
+
+    private Message newMessage(String roomId) {
+        Message message = new Message(String.valueOf(BenchmarkContext.FIRST_USER_ID), 0,
+                "Hello, how is it going? Lunch at noon?", roomId);
+        message.setId(messageIdGenerator.nextId());
+        message.setDate((int) (System.currentTimeMillis() / 1000));
+        return message;
+    }
+
+    private void deleteRooms() {
+        context.getBean(StringRedisTemplate.class).delete(Arrays.asList(
+                messageStore.getRoomKey(READ_ROOM_ID), messageStore.getRoomKey(WRITE_ROOM_ID)));
+    }
+}
@@ -0,0 +1,79 @@
+package com.redisdeveloper.basicchat.benchmark;
+
+import com.redisdeveloper.basicchat.codec.JsonCodec;
+import com.redisdeveloper.basicchat.model.Message;
+import com.redisdeveloper.basicchat.model.MessageType;
+import com.redisdeveloper.basicchat.service.RedisMessageSubscriber;
+import com.redisdeveloper.basicchat.service.SseConnection;
+import com.redisdeveloper.basicchat.service.SseDeliveryService;
+import com.redisdeveloper.basicchat.service.SseFrame;
+import com.redisdeveloper.basicchat.service.SseFrameEmitter;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.redis.connection.DefaultMessage;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Delivery of a pub/sub message to the streams of the members of its room: routing, framing and queueing. The
+ * streams write into emitters which discard the frames, on the SSE writer threads as usual.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SubscriberFanOutBenchmark {
+
+    private static final String ROOM_ID = "bench-fanout";
+
+    @Param({"1", "100", "1000"})
+    private int handlers;
+
+    private ConfigurableApplicationContext context;
+    private RedisMessageSubscriber subscriber;
+    private final List<SseConnection> connections = new ArrayList<>();
+    private DefaultMessage message;
+
+    @Setup
+    public void setUp() {
+        context = BenchmarkContext.start();
+        subscriber = context.getBean(RedisMessageSubscriber.class);
+        SseDeliveryService deliveryService = context.getBean(SseDeliveryService.class);
+        for (int i = 0; i < handlers; i++) {
+            SseConnection connection =
+                    deliveryService.open(BenchmarkContext.FIRST_USER_ID + i, new DiscardingEmitter());
+            subscriber.attach(connection, Collections.singletonList(ROOM_ID));
+            connections.add(connection);
+        }
+        Message chatMessage = new Message(String.valueOf(BenchmarkContext.FIRST_USER_ID), 1792299608,
+                "Hello, how is it going? Lunch at noon?", ROOM_ID);
+        byte[] body = context.getBean(JsonCodec.class).writeMessageEvent(MessageType.MESSAGE.value(), chatMessage);
+        message = new DefaultMessage("MESSAGES".getBytes(StandardCharsets.UTF_8), body);
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (SseConnection connection : connections) {
+            subscriber.detach(connection);
+            connection.close(false);
+        }
+        context.close();
+    }
+
+    @Benchmark
+    public void onMessage() {
+        subscriber.onMessage(message, null);
+    }
+
+    private static class DiscardingEmitter extends SseFrameEmitter {
+        @Override
+        public void send(SseFrame frame) {
+        }
+    }
+}
@@ -1,9 +1,11 @@
 package com.redisdeveloper.basicchat;
 
-import com.google.gson.Gson;
 import com.redisdeveloper.basicchat.model.Message;
 import com.redisdeveloper.basicchat.model.Room;
 import com.redisdeveloper.basicchat.model.User;
+import com.redisdeveloper.basicchat.repository.MessageStore;
+import com.redisdeveloper.basicchat.repository.NameCache;
+import com.redisdeveloper.basicchat.service.MessageIdGenerator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -23,9 +25,19 @@ public class DemoDataCreator {
 
     private StringRedisTemplate redisTemplate;
 
+    private MessageStore messageStore;
+
+    private NameCache nameCache;
+
+    private MessageIdGenerator messageIdGenerator;
+
     @Autowired
-    public DemoDataCreator(StringRedisTemplate redisTemplate) {
+    public DemoDataCreator(StringRedisTemplate redisTemplate, MessageStore messageStore, NameCache nameCache,
+                           MessageIdGenerator messageIdGenerator) {
         this.redisTemplate = redisTemplate;
+        this.messageStore = messageStore;
+        this.nameCache = nameCache;
+        this.messageIdGenerator = messageIdGenerator;
         this.createDemoData();
     }
 
@@ -46,6 +58,8 @@ public class DemoDataCreator {
             // is handled to resolve the name.
             // Rooms with private messages don't have a name
             redisTemplate.opsForValue().set("room:0:name", "General");
+            // Other nodes may have cached the names of a previous data set.
+            nameCache.invalidateRoom("0");
 
 
             List<User> users = new LinkedList<>();
@@ -87,15 +101,14 @@ public class DemoDataCreator {
     }
 
     private void addMessage(String roomId, String fromId, String content, Integer timeStamp) {
-        Gson gson = new Gson();
-        String roomKey = String.format("room:%s", roomId);
         Message message = new Message(
                 fromId,
                 timeStamp,
                 content,
                 roomId
         );
-        redisTemplate.opsForZSet().add(roomKey, gson.toJson(message), message.getDate());
+        message.setId(messageIdGenerator.idAt(timeStamp * 1000L));
+        messageStore.saveMessage(message);
     }
 
     private User createUser(String username){
@@ -111,6 +124,7 @@ public class DemoDataCreator {
         redisTemplate.opsForValue().set(usernameKey, userKey);
         redisTemplate.opsForHash().put(userKey, "username", username);
         redisTemplate.opsForHash().put(userKey, "password", hashedPassword);
+        nameCache.invalidateUser(nextId);
 
         String roomsKey = String.format("user:%s:rooms", nextId);
         redisTemplate.opsForSet().add(roomsKey, "0");
@@ -0,0 +1,173 @@
+package com.redisdeveloper.basicchat;
+
+import com.redisdeveloper.basicchat.model.MessageId;
+import com.redisdeveloper.basicchat.repository.MessageStore;
+import com.redisdeveloper.basicchat.repository.StreamMessageStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.connection.DataType;
+import org.springframework.data.redis.connection.RedisZSetCommands;
+import org.springframework.data.redis.connection.stream.ByteRecord;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Copies the messages of the rooms stored as sorted sets ("room:{id}") into streams ("room:{id}:stream"),
+ * when switching an existing database to "chat.storage=stream". Enabled with "chat.storage.migration.enabled",
+ * it runs once at startup while the application context is created, so before the node accepts connections
+ * and starts reading the streams; the sorted sets are only deleted with
+ * "chat.storage.migration.delete-source".
+ *
+ * Entry ids are derived from the scores, the time of the message id or the date in seconds of older messages,
+ * with increasing sequence numbers for messages of the same millisecond, so the history keeps its order.
+ * A room is copied into a temporary key first and renamed only if its stream doesn't exist yet, so a migrated
+ * room, or a room which already received messages as a stream, is never overwritten and an interrupted
+ * migration can simply be run again.
+ */
+@Component
+@ConditionalOnProperty(name = "chat.storage.migration.enabled", havingValue = "true")
+public class SortedSetToStreamMigration implements InitializingBean {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SortedSetToStreamMigration.class);
+
+    private static final String ROOM_KEY_PATTERN = "room:*";
+    private static final String MIGRATING_KEY_SUFFIX = ":migrating";
+    private static final int BATCH_SIZE = 500;
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+
+    @Autowired
+    private MessageStore messageStore;
+
+    @Value("${chat.storage.migration.delete-source:false}")
+    private boolean deleteSource;
+
+    @Override
+    public void afterPropertiesSet() {
+        if (!(messageStore instanceof StreamMessageStore)) {
+            LOGGER.warn("Skipping the sorted set migration, chat.storage is not set to stream");
+            return;
+        }
+        StreamMessageStore streamStore = (StreamMessageStore) messageStore;
+        int migratedRooms = 0;
+        for (String roomKey : findSortedSetRooms()) {
+            String roomId = roomKey.substring("room:".length());
+            if (migrateRoom(streamStore, roomKey, roomId)) {
+                migratedRooms++;
+            }
+        }
+        LOGGER.info("Migrated {} rooms from sorted sets to streams", migratedRooms);
+    }
+
+    private List<String> findSortedSetRooms() {
+        List<String> roomKeys = new ArrayList<>();
+        redisTemplate.execute((RedisCallback<Object>) connection -> {
+            ScanOptions options = ScanOptions.scanOptions().match(ROOM_KEY_PATTERN).count(BATCH_SIZE).build();
+            try (Cursor<byte[]> cursor = connection.scan(options)) {
+                while (cursor.hasNext()) {
+                    byte[] key = cursor.next();
+                    if (connection.type(key) == DataType.ZSET) {
+                        roomKeys.add(new String(key, StandardCharsets.UTF_8));
+                    }
+                }
+            } catch (IOException e) {
+                LOGGER.warn("Failed to close the scan cursor", e);
+            }
+            return null;
+        });
+        return roomKeys;
+    }
+
+    private boolean migrateRoom(StreamMessageStore streamStore, String roomKey, String roomId) {
+        String streamKey = streamStore.getRoomKey(roomId);
+        if (Boolean.TRUE.equals(redisTemplate.hasKey(streamKey))) {
+            LOGGER.info("Stream of room {} already exists, skipping it", roomId);
+            return false;
+        }
+        String migratingKey = streamKey + MIGRATING_KEY_SUFFIX;
+        byte[] migratingKeyBytes = migratingKey.getBytes(StandardCharsets.UTF_8);
+        byte[] roomKeyBytes = roomKey.getBytes(StandardCharsets.UTF_8);
+        // Leftover of an interrupted migration.
+        redisTemplate.delete(migratingKey);
+
+        long lastMillis = -1;
+        long lastSequence = 0;
+        long count = 0;
+        for (long offset = 0; ; offset += BATCH_SIZE) {
+            long start = offset;
+            long end = offset + BATCH_SIZE - 1;
+            Set<RedisZSetCommands.Tuple> tuples = redisTemplate.execute((RedisCallback<Set<RedisZSetCommands.Tuple>>)
+                    connection -> connection.zRangeWithScores(roomKeyBytes, start, end));
+            if (tuples == null || tuples.isEmpty()) {
+                break;
+            }
+            List<ByteRecord> records = new ArrayList<>(tuples.size());
+            for (RedisZSetCommands.Tuple tuple : tuples) {
+                long millis = getMillis(tuple.getScore());
+                if (millis > lastMillis) {
+                    lastMillis = millis;
+                    lastSequence = 0;
+                } else {
+                    lastSequence++;
+                }
+                // Copied as stored, json or binary, both codecs read either.
+                records.add(StreamRecords
+                        .rawBytes(Collections.singletonMap(StreamMessageStore.MESSAGE_FIELD, tuple.getValue()))
+                        .withStreamKey(migratingKeyBytes)
+                        .withId(RecordId.of(lastMillis, lastSequence)));
+            }
+            redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (ByteRecord record : records) {
+                    connection.xAdd(record);
+                }
+                return null;
+            });
+            count += records.size();
+            if (tuples.size() < BATCH_SIZE) {
+                break;
+            }
+        }
+        if (count == 0) {
+            return false;
+        }
+
+        if (count > streamStore.getMaxLength()) {
+            redisTemplate.execute((RedisCallback<Long>) connection ->
+                    connection.xTrim(migratingKeyBytes, streamStore.getMaxLength()));
+        }
+        if (!Boolean.TRUE.equals(redisTemplate.renameIfAbsent(migratingKey, streamKey))) {
+            LOGGER.warn("Stream of room {} was created during the migration, keeping it", roomId);
+            redisTemplate.delete(migratingKey);
+            return false;
+        }
+        if (deleteSource) {
+            redisTemplate.delete(roomKey);
+        }
+        LOGGER.info("Migrated {} messages of room {}", count, roomId);
+        return true;
+    }
+
+    /**
+     * Time of the stream entry of a message, from its score: its id, or its date in seconds for older messages.
+     */
+    static long getMillis(double score) {
+        if (score > MessageId.MAX_DATE_SCORE) {
+            return MessageId.getTimestampMillis((long) score);
+        }
+        return Math.max((long) (score * 1000), 1);
+    }
+}
@@ -0,0 +1,187 @@
+package com.redisdeveloper.basicchat.codec;
+
+import com.redisdeveloper.basicchat.model.Message;
+import com.redisdeveloper.basicchat.model.MessageId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Compact binary format of the stored messages, about 50 bytes smaller than the json per message:
+ *
+ * <pre>
+ * version   1 byte, 0x02, or 0x01 for a message without an id (a json value starts with '{', so the formats are
+ *           told apart by the first byte)
+ * id        varint, only in version 2
+ * from      varint, the user id shifted left by one, or the length of the UTF-8 sender shifted left by one with
+ *           the low bit set followed by its bytes, for a sender which is not a user id. A missing sender is
+ *           written as user id 2^31, which no int user id reaches
+ * date      zigzag varint, in version 2 the difference with the time of the id (0 for messages received by the
+ *           server, which dates them with their id)
+ * message   the UTF-8 text, up to the end of the value (a missing text is read back as empty)
+ * </pre>
+ *
+ * The room id is not stored, it's the room the value is read from. Two identical messages of a room are still the
+ * same sorted set member, as with json.
+ */
+@Component
+@ConditionalOnProperty(name = "chat.storage.codec", havingValue = "binary")
+public class BinaryMessageCodec implements MessageCodec {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BinaryMessageCodec.class);
+
+    static final byte VERSION_1 = 0x01;
+    static final byte VERSION_2 = 0x02;
+    // Written in place of the user id of a message without a sender.
+    static final long NO_SENDER = (long) Integer.MAX_VALUE + 1;
+
+    @Autowired
+    private JsonCodec jsonCodec;
+
+    @Override
+    public byte[] encode(Message message) {
+        byte[] text = message.getMessage() == null
+                ? new byte[0]
+                : message.getMessage().getBytes(StandardCharsets.UTF_8);
+        String from = message.getFrom();
+        long userId = from == null ? NO_SENDER : parseUserId(from);
+        byte[] fromText = userId < 0 ? from.getBytes(StandardCharsets.UTF_8) : null;
+
+        Long id = message.getId();
+        // version + at most 8 bytes for the id and 5 bytes per other varint.
+        byte[] out = new byte[1 + 8 + 5 + (fromText == null ? 0 : fromText.length) + 5 + text.length];
+        int pos = 0;
+        long date = message.getDate();
+        if (id == null) {
+            out[pos++] = VERSION_1;
+        } else {
+            out[pos++] = VERSION_2;
+            pos = writeVarint(out, pos, id);
+            date -= MessageId.getTimestampMillis(id) / 1000;
+        }
+        if (fromText == null) {
+            pos = writeVarint(out, pos, userId << 1);
+        } else {
+            pos = writeVarint(out, pos, ((long) fromText.length << 1) | 1);
+            System.arraycopy(fromText, 0, out, pos, fromText.length);
+            pos += fromText.length;
+        }
+        pos = writeVarint(out, pos, (date << 1) ^ (date >> 63));
+        System.arraycopy(text, 0, out, pos, text.length);
+        return Arrays.copyOf(out, pos + text.length);
+    }
+
+    @Override
+    public byte[] toJson(byte[] stored, String roomId) {
+        return isBinary(stored) ? decodeToJson(jsonCodec, stored, roomId) : stored;
+    }
+
+    static boolean isBinary(byte[] stored) {
+        return stored.length > 0 && (stored[0] == VERSION_1 || stored[0] == VERSION_2);
+    }
+
+    static byte[] decodeToJson(JsonCodec jsonCodec, byte[] stored, String roomId) {
+        Message message = decode(stored, roomId);
+        if (message == null) {
+            LOGGER.error("Skipping corrupt binary message in room {}: {}", roomId, Arrays.toString(stored));
+            return null;
+        }
+        return jsonCodec.writeMessageBytes(message);
+    }
+
+    /**
+     * @return the message, null if the value is not a well-formed binary message
+     */
+    static Message decode(byte[] stored, String roomId) {
+        if (!isBinary(stored)) {
+            return null;
+        }
+        int[] pos = {1};
+        Long id = null;
+        if (stored[0] == VERSION_2) {
+            id = readVarint(stored, pos, 8);
+            if (id < 0) {
+                return null;
+            }
+        }
+        long fromHeader = readVarint(stored, pos, 5);
+        if (fromHeader < 0) {
+            return null;
+        }
+        String from;
+        if (fromHeader == NO_SENDER << 1) {
+            from = null;
+        } else if ((fromHeader & 1) == 0) {
+            from = String.valueOf(fromHeader >>> 1);
+        } else {
+            int length = (int) (fromHeader >>> 1);
+            if (length > stored.length - pos[0]) {
+                return null;
+            }
+            from = new String(stored, pos[0], length, StandardCharsets.UTF_8);
+            pos[0] += length;
+        }
+        long zigzag = readVarint(stored, pos, 5);
+        if (zigzag < 0) {
+            return null;
+        }
+        long date = (zigzag >>> 1) ^ -(zigzag & 1);
+        if (id != null) {
+            date += MessageId.getTimestampMillis(id) / 1000;
+        }
+        String text = new String(stored, pos[0], stored.length - pos[0], StandardCharsets.UTF_8);
+        Message message = new Message(from, (int) date, text, roomId);
+        message.setId(id);
+        return message;
+    }
+
+    /**
+     * The user id of a sender written the way ids are, e.g. "12", or -1.
+     */
+    private static int parseUserId(String from) {
+        if (from.isEmpty() || from.length() > 10 || (from.length() > 1 && from.charAt(0) == '0')) {
+            return -1;
+        }
+        long id = 0;
+        for (int i = 0; i < from.length(); i++) {
+            char c = from.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            id = id * 10 + (c - '0');
+        }
+        return id > Integer.MAX_VALUE ? -1 : (int) id;
+    }
+
+    private static int writeVarint(byte[] out, int pos, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out[pos++] = (byte) value;
+        return pos;
+    }
+
+    /**
+     * Read a varint of at most maxBytes (up to 8) at pos[0] and move past it, -1 if it's truncated or too long.
+     */
+    private static long readVarint(byte[] in, int[] pos, int maxBytes) {
+        long value = 0;
+        for (int shift = 0; shift < 7 * maxBytes; shift += 7) {
+            if (pos[0] >= in.length) {
+                return -1;
+            }
+            byte b = in[pos[0]++];
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,186 @@
+package com.redisdeveloper.basicchat.codec;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.redisdeveloper.basicchat.model.Message;
+import com.redisdeveloper.basicchat.model.MessageType;
+import com.redisdeveloper.basicchat.model.PubSubMessage;
+import com.redisdeveloper.basicchat.model.Room;
+import com.redisdeveloper.basicchat.model.User;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The json codec of the models which are stored in Redis, published over pub/sub or kept in the session.
+ * One Gson instance is shared by the whole application (it is thread-safe), and the type adapters of the
+ * models are resolved once instead of being rebuilt by reflection on every call.
+ *
+ * Spring MVC request and response bodies are still handled by Jackson, the two don't produce the same json
+ * for every model (e.g. the online flag of {@link User} is "isOnline" here and "online" over HTTP).
+ */
+@Component
+public class JsonCodec {
+
+    private static final byte[] MESSAGE_EVENT_PREFIX =
+            ("{\"type\":\"" + MessageType.MESSAGE.value() + "\",\"data\":").getBytes(StandardCharsets.UTF_8);
+
+    private final Gson gson = new Gson();
+
+    private final TypeAdapter<Message> messageAdapter = gson.getAdapter(Message.class);
+    private final TypeAdapter<User> userAdapter = gson.getAdapter(User.class);
+    private final TypeAdapter<String> stringAdapter = gson.getAdapter(String.class);
+    private final TypeAdapter<JsonElement> jsonElementAdapter = gson.getAdapter(JsonElement.class);
+    private final TypeAdapter<PubSubMessage<Message>> messageEventAdapter =
+            gson.getAdapter(new TypeToken<PubSubMessage<Message>>() {});
+    private final TypeAdapter<PubSubMessage<User>> userEventAdapter =
+            gson.getAdapter(new TypeToken<PubSubMessage<User>>() {});
+    private final TypeAdapter<PubSubMessage<Room>> roomEventAdapter =
+            gson.getAdapter(new TypeToken<PubSubMessage<Room>>() {});
+    private final TypeAdapter<PubSubMessage<String>> rawEventAdapter =
+            gson.getAdapter(new TypeToken<PubSubMessage<String>>() {});
+
+    public Message readMessage(String json) {
+        return gson.fromJson(json, Message.class);
+    }
+
+    public User readUser(String json) {
+        return gson.fromJson(json, User.class);
+    }
+
+    /**
+     * Read a "user.connected" or "user.disconnected" event, null for the other events and malformed json.
+     * Every event of the MESSAGES channel goes through here, so the event is streamed: the type is written first,
+     * and the data of the other events is never read. Only an event whose data comes first has it buffered.
+     */
+    public PubSubMessage<User> readUserEvent(String json) {
+        String type = null;
+        JsonElement bufferedData = null;
+        User user = null;
+        try (JsonReader reader = gson.newJsonReader(new StringReader(json))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if ("type".equals(name) && type == null) {
+                    if (reader.peek() != JsonToken.STRING) {
+                        return null;
+                    }
+                    type = reader.nextString();
+                    if (!isUserEventType(type)) {
+                        return null;
+                    }
+                } else if ("data".equals(name) && type != null) {
+                    user = userAdapter.read(reader);
+                } else if ("data".equals(name)) {
+                    bufferedData = jsonElementAdapter.read(reader);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (IOException | JsonParseException | IllegalStateException e) {
+            return null;
+        }
+        if (type == null) {
+            return null;
+        }
+        return new PubSubMessage<>(type, bufferedData != null ? userAdapter.fromJsonTree(bufferedData) : user);
+    }
+
+    private static boolean isUserEventType(String type) {
+        return MessageType.USER_CONNECTED.value().equals(type) || MessageType.USER_DISCONNECTED.value().equals(type);
+    }
+
+    public String writeUser(User user) {
+        return toString(userAdapter, user);
+    }
+
+    public String writeMessage(Message message) {
+        return toString(messageAdapter, message);
+    }
+
+    public byte[] writeMessageBytes(Message message) {
+        return toUtf8(messageAdapter, message);
+    }
+
+    public byte[] writeMessageEvent(String type, Message message) {
+        return toUtf8(messageEventAdapter, new PubSubMessage<>(type, message));
+    }
+
+    /**
+     * Wrap the json of a stored message into a "message" event without parsing it. The output is the same as
+     * {@link #writeMessageEvent(String, Message)} for the message.
+     */
+    public byte[] wrapMessageEvent(byte[] messageJson) {
+        byte[] event = new byte[MESSAGE_EVENT_PREFIX.length + messageJson.length + 1];
+        System.arraycopy(MESSAGE_EVENT_PREFIX, 0, event, 0, MESSAGE_EVENT_PREFIX.length);
+        System.arraycopy(messageJson, 0, event, MESSAGE_EVENT_PREFIX.length, messageJson.length);
+        event[event.length - 1] = '}';
+        return event;
+    }
+
+    public byte[] writeUserEvent(String type, User user) {
+        return toUtf8(userEventAdapter, new PubSubMessage<>(type, user));
+    }
+
+    public byte[] writeRoomEvent(String type, Room room) {
+        return toUtf8(roomEventAdapter, new PubSubMessage<>(type, room));
+    }
+
+    public byte[] writeRawEvent(String type, String data) {
+        return toUtf8(rawEventAdapter, new PubSubMessage<>(type, data));
+    }
+
+    /**
+     * A json string literal, or null.
+     */
+    public byte[] writeStringBytes(String value) {
+        return toUtf8(stringAdapter, value);
+    }
+
+    /**
+     * Same writer settings as {@link Gson#toJson(Object)}, so the output doesn't depend on the codec method.
+     */
+    private JsonWriter newJsonWriter(Writer out) throws IOException {
+        JsonWriter writer = gson.newJsonWriter(out);
+        writer.setLenient(true);
+        writer.setHtmlSafe(gson.htmlSafe());
+        return writer;
+    }
+
+    private <T> String toString(TypeAdapter<T> adapter, T value) {
+        StringWriter out = new StringWriter();
+        try (JsonWriter writer = newJsonWriter(out)) {
+            adapter.write(writer, value);
+        } catch (IOException e) {
+            // Writing into memory doesn't fail.
+            throw new UncheckedIOException(e);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Encode straight into UTF-8 bytes, ready to be sent to Redis, without an intermediate String.
+     */
+    private <T> byte[] toUtf8(TypeAdapter<T> adapter, T value) {
+        Utf8ByteWriter out = new Utf8ByteWriter(128);
+        try (JsonWriter writer = newJsonWriter(out)) {
+            adapter.write(writer, value);
+        } catch (IOException e) {
+            // Writing into memory doesn't fail.
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+}
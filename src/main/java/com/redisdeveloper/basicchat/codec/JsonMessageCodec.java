@@ -0,0 +1,30 @@
+package com.redisdeveloper.basicchat.codec;
+
+import com.redisdeveloper.basicchat.model.Message;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Messages are stored as their json, which is served as it is. Binary values stored while the binary codec was
+ * used are still read.
+ */
+@Component
+@ConditionalOnProperty(name = "chat.storage.codec", havingValue = "json", matchIfMissing = true)
+public class JsonMessageCodec implements MessageCodec {
+
+    @Autowired
+    private JsonCodec jsonCodec;
+
+    @Override
+    public byte[] encode(Message message) {
+        return jsonCodec.writeMessageBytes(message);
+    }
+
+    @Override
+    public byte[] toJson(byte[] stored, String roomId) {
+        return BinaryMessageCodec.isBinary(stored)
+                ? BinaryMessageCodec.decodeToJson(jsonCodec, stored, roomId)
+                : stored;
+    }
+}
@@ -0,0 +1,26 @@
+package com.redisdeveloper.basicchat.codec;
+
+import com.redisdeveloper.basicchat.model.Message;
+
+/**
+ * Encoding of the messages stored in the rooms. The format is picked with the "chat.storage.codec" property:
+ * "json" (default) stores the json of the message, "binary" the compact format of {@link BinaryMessageCodec}.
+ * Both read the two formats, so the codec can be changed without migrating the rooms.
+ *
+ * Only the stored values are affected, the pub/sub events and the HTTP/SSE payloads are always json.
+ */
+public interface MessageCodec {
+
+    /**
+     * The value to store for the message.
+     */
+    byte[] encode(Message message);
+
+    /**
+     * The json of a stored message, whatever format it was stored in.
+     *
+     * @param roomId room the value was read from, the binary format doesn't repeat it
+     * @return the json, null if the value is a corrupt binary message
+     */
+    byte[] toJson(byte[] stored, String roomId);
+}
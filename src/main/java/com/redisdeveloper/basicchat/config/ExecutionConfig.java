@@ -0,0 +1,27 @@
+package com.redisdeveloper.basicchat.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Opt-in execution mode running the Tomcat request threads on virtual threads ("chat.virtual-threads.enabled").
+ * Requests blocked on Redis then don't hold a platform thread, so the number of concurrent requests is no longer
+ * capped by server.tomcat.threads.max. /chat/stream doesn't hold a request thread in either mode, the emitter
+ * is asynchronous; the number of open streams is capped by server.tomcat.max-connections.
+ */
+@Configuration
+@ConditionalOnProperty(name = "chat.virtual-threads.enabled", havingValue = "true")
+public class ExecutionConfig {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ExecutionConfig.class);
+
+    @Bean
+    public TomcatProtocolHandlerCustomizer<?> virtualThreadsProtocolHandlerCustomizer() {
+        LOGGER.info("Running request handling on virtual threads");
+        return protocolHandler -> protocolHandler.setExecutor(VirtualThreads.newExecutor("http-vt-"));
+    }
+}
@@ -0,0 +1,35 @@
+package com.redisdeveloper.basicchat.config;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Picks the payloads logged by the hot paths, about one call out of "chat.logging.payload-sample-rate", so debug
+ * logging can be switched on under load. Check the log level first, the sampling is only the second condition:
+ *
+ * <pre>
+ * if (LOGGER.isDebugEnabled() &amp;&amp; payloadLogSampler.sample()) {
+ *     LOGGER.debug("Received message: {}", payload);
+ * }
+ * </pre>
+ */
+@Component
+public class PayloadLogSampler {
+
+    private final int rate;
+
+    @Autowired
+    public PayloadLogSampler(@Value("${chat.logging.payload-sample-rate:100}") int rate) {
+        this.rate = rate;
+    }
+
+    /**
+     * Whether this call logs its payload, never with a rate of 0 and always with a rate of 1.
+     */
+    public boolean sample() {
+        return rate > 0 && (rate == 1 || ThreadLocalRandom.current().nextInt(rate) == 0);
+    }
+}
@@ -1,6 +1,10 @@
 package com.redisdeveloper.basicchat.config;
 
 import com.redisdeveloper.basicchat.service.RedisMessageSubscriber;
+import io.lettuce.core.resource.ClientResources;
+import io.lettuce.core.resource.DefaultClientResources;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
@@ -10,7 +14,9 @@ import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Primary;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
 import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceClientConfiguration;
 import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.connection.lettuce.LettucePoolingClientConfiguration;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.listener.ChannelTopic;
 import org.springframework.data.redis.listener.RedisMessageListenerContainer;
@@ -30,15 +36,21 @@ public class RedisAppConfig {
     }
 
     @Bean
-    MessageListenerAdapter messageListener() {
-        return new MessageListenerAdapter(new RedisMessageSubscriber());
+    MessageListenerAdapter messageListener(RedisMessageSubscriber redisMessageSubscriber) {
+        return new MessageListenerAdapter(redisMessageSubscriber);
     }
 
     @Bean
-    RedisMessageListenerContainer redisContainer(RedisConnectionFactory redisConnectionFactory,
-                                                 MessageListenerAdapter messageListener) {
+    RedisMessageListenerContainer redisContainer(
+            RedisConnectionFactory redisConnectionFactory,
+            MessageListenerAdapter messageListener,
+            @Value("${chat.virtual-threads.enabled:false}") boolean virtualThreads) {
         RedisMessageListenerContainer container = new RedisMessageListenerContainer();
         container.setConnectionFactory(redisConnectionFactory);
+        if (virtualThreads) {
+            // By default every received message is dispatched on a newly started platform thread.
+            container.setTaskExecutor(VirtualThreads.newExecutor("redis-listener-vt-"));
+        }
         container.addMessageListener(messageListener, topic());
         return container;
     }
@@ -48,8 +60,21 @@ public class RedisAppConfig {
         return new ChannelTopic("MESSAGES");
     }
 
+    @Bean(destroyMethod = "shutdown")
+    ClientResources lettuceClientResources(MeterRegistry meterRegistry) {
+        RedisMetrics metrics = new RedisMetrics(meterRegistry);
+        ClientResources clientResources = DefaultClientResources.builder()
+                .commandLatencyRecorder(metrics)
+                .build();
+        metrics.bindConnectionEvents(clientResources.eventBus());
+        return clientResources;
+    }
+
     @Bean
-    public RedisConnectionFactory redisConnectionFactory() {
+    public RedisConnectionFactory redisConnectionFactory(ClientResources clientResources,
+                                                         @Value("${chat.redis.pool.max-active:8}") int maxActive,
+                                                         @Value("${chat.redis.pool.max-idle:8}") int maxIdle,
+                                                         @Value("${chat.redis.pool.min-idle:0}") int minIdle) {
         // Read environment variables
         String endpointUrl = System.getenv("REDIS_ENDPOINT_URL");
         if (endpointUrl == null) {
@@ -73,6 +98,18 @@ public class RedisAppConfig {
         if (password != null) {
             config.setPassword(password);
         }
-        return new LettuceConnectionFactory(config);
+
+        // Single commands share one connection, the pool holds the dedicated connections of pipelines, transactions,
+        // blocking reads and subscriptions, the short-lived ones would be opened and closed on every use otherwise.
+        GenericObjectPoolConfig<?> poolConfig = new GenericObjectPoolConfig<>();
+        poolConfig.setMaxTotal(maxActive);
+        poolConfig.setMaxIdle(maxIdle);
+        poolConfig.setMinIdle(minIdle);
+        poolConfig.setJmxNamePrefix(RedisMetrics.POOL_JMX_NAME_PREFIX);
+        LettuceClientConfiguration clientConfig = LettucePoolingClientConfiguration.builder()
+                .clientResources(clientResources)
+                .poolConfig(poolConfig)
+                .build();
+        return new LettuceConnectionFactory(config, clientConfig);
     }
 }
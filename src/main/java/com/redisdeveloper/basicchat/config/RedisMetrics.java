@@ -0,0 +1,105 @@
+package com.redisdeveloper.basicchat.config;
+
+import io.lettuce.core.event.EventBus;
+import io.lettuce.core.event.connection.ConnectionActivatedEvent;
+import io.lettuce.core.event.connection.ConnectionDeactivatedEvent;
+import io.lettuce.core.metrics.CommandLatencyRecorder;
+import io.lettuce.core.protocol.ProtocolKeyword;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.net.SocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Metrics of the Redis client: the latency of every command by type, recorded by Lettuce when the command
+ * completes, the connections, counted from the connection events of Lettuce, and the state of the connection pool,
+ * read from the JMX beans of commons-pool when they are scraped.
+ */
+class RedisMetrics implements CommandLatencyRecorder {
+
+    static final String POOL_JMX_NAME_PREFIX = "redis-pool";
+
+    private final MeterRegistry meterRegistry;
+    private final ObjectName poolNames;
+    // The command types are a small fixed set, the timer of a type is only built the first time it's sent.
+    private final Map<ProtocolKeyword, Timer> commandTimers = new ConcurrentHashMap<>();
+    private final AtomicInteger openConnections = new AtomicInteger();
+
+    RedisMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        try {
+            this.poolNames = new ObjectName("org.apache.commons.pool2:type=GenericObjectPool,name="
+                    + POOL_JMX_NAME_PREFIX + "*");
+        } catch (MalformedObjectNameException e) {
+            throw new IllegalStateException(e);
+        }
+        registerPoolGauge("chat.redis.pool.active", "NumActive", "Pooled Redis connections in use");
+        registerPoolGauge("chat.redis.pool.idle", "NumIdle", "Pooled Redis connections waiting to be used");
+        registerPoolGauge("chat.redis.pool.waiters", "NumWaiters", "Threads waiting for a pooled Redis connection");
+    }
+
+    @Override
+    public void recordCommandLatency(SocketAddress local, SocketAddress remote, ProtocolKeyword commandType,
+                                     long firstResponseLatency, long completionLatency) {
+        Timer timer = commandTimers.get(commandType);
+        if (timer == null) {
+            timer = commandTimers.computeIfAbsent(commandType, type -> Timer.builder("chat.redis.commands")
+                    .tag("command", type.name())
+                    .description("Time from sending a Redis command until its reply is complete")
+                    .register(meterRegistry));
+        }
+        timer.record(completionLatency, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Single commands share one connection, the others are taken from the pool: the count of opened connections
+     * shows how often the pool runs empty.
+     */
+    void bindConnectionEvents(EventBus eventBus) {
+        Gauge.builder("chat.redis.connections", openConnections, AtomicInteger::get)
+                .description("Open Redis connections")
+                .register(meterRegistry);
+        Counter opened = Counter.builder("chat.redis.connections.opened")
+                .description("Redis connections opened, including reconnections")
+                .register(meterRegistry);
+        eventBus.get().subscribe(event -> {
+            if (event instanceof ConnectionActivatedEvent) {
+                openConnections.incrementAndGet();
+                opened.increment();
+            } else if (event instanceof ConnectionDeactivatedEvent) {
+                openConnections.decrementAndGet();
+            }
+        });
+    }
+
+    private void registerPoolGauge(String name, String attribute, String description) {
+        Gauge.builder(name, this, metrics -> metrics.sumPoolAttribute(attribute))
+                .description(description)
+                .register(meterRegistry);
+    }
+
+    // The pools are created by the connection factory on demand, e.g. by the first pipeline.
+    private double sumPoolAttribute(String attribute) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        double sum = 0;
+        try {
+            for (ObjectName pool : server.queryNames(poolNames, null)) {
+                sum += ((Number) server.getAttribute(pool, attribute)).doubleValue();
+            }
+        } catch (JMException e) {
+            return Double.NaN;
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,36 @@
+package com.redisdeveloper.basicchat.config;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Virtual thread executors for the opt-in "chat.virtual-threads.enabled" mode. The project still compiles for
+ * Java 10, so the Java 21 API is looked up by reflection; the mode fails fast on an older runtime.
+ */
+public final class VirtualThreads {
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * An executor starting a new virtual thread per task, the threads are named with the prefix and a counter.
+     *
+     * @throws IllegalStateException if the runtime doesn't support virtual threads
+     */
+    public static ExecutorService newExecutor(String threadNamePrefix) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, threadNamePrefix, 0L);
+            ThreadFactory factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            Method newThreadPerTaskExecutor =
+                    Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            return (ExecutorService) newThreadPerTaskExecutor.invoke(null, factory);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Virtual threads require Java 21 or newer, running on Java "
+                    + System.getProperty("java.version"), e);
+        }
+    }
+}
@@ -1,6 +1,6 @@
 package com.redisdeveloper.basicchat.controller;
 
-import com.google.gson.Gson;
+import com.redisdeveloper.basicchat.codec.JsonCodec;
 import com.redisdeveloper.basicchat.config.SessionAttrs;
 import com.redisdeveloper.basicchat.model.LoginData;
 import com.redisdeveloper.basicchat.model.User;
@@ -22,6 +22,9 @@ public class AuthController {
     @Autowired
     private UsersRepository usersRepository;
 
+    @Autowired
+    private JsonCodec jsonCodec;
+
     private static final Logger LOGGER = LoggerFactory.getLogger(AuthController.class);
 
     /**
@@ -42,9 +45,8 @@ public class AuthController {
         }
         user.setOnline(true);
 
-        Gson gson = new Gson();
-        session.setAttribute(SessionAttrs.USER_ATTR_NAME, gson.toJson(user));
-        LOGGER.info("Sign in user: "+user.getUsername());
+        session.setAttribute(SessionAttrs.USER_ATTR_NAME, jsonCodec.writeUser(user));
+        LOGGER.info("Sign in user: {}", user.getUsername());
 
         return new ResponseEntity<>(user, HttpStatus.OK);
     }
@@ -56,7 +58,7 @@ public class AuthController {
     @PostMapping(value = "/logout")
     public ResponseEntity<Object> logout(Model model, HttpSession session) {
         Object user = session.getAttribute(SessionAttrs.USER_ATTR_NAME);
-        LOGGER.info("Sign out user: "+user.toString());
+        LOGGER.info("Sign out user: {}", user);
 
         session.removeAttribute(SessionAttrs.USER_ATTR_NAME);
         return ResponseEntity.status(HttpStatus.OK).build();
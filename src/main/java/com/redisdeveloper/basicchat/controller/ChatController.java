@@ -1,27 +1,40 @@
 package com.redisdeveloper.basicchat.controller;
 
-import com.google.gson.Gson;
+import com.redisdeveloper.basicchat.codec.JsonCodec;
+import com.redisdeveloper.basicchat.config.PayloadLogSampler;
 import com.redisdeveloper.basicchat.model.*;
 import com.redisdeveloper.basicchat.repository.RoomsRepository;
 import com.redisdeveloper.basicchat.repository.UsersRepository;
+import com.redisdeveloper.basicchat.service.MessageIdGenerator;
+import com.redisdeveloper.basicchat.service.PresenceService;
 import com.redisdeveloper.basicchat.service.RedisMessageSubscriber;
+import com.redisdeveloper.basicchat.service.SseConnection;
+import com.redisdeveloper.basicchat.service.SseDeliveryService;
+import com.redisdeveloper.basicchat.service.SseEventId;
+import com.redisdeveloper.basicchat.service.SseFrame;
+import com.redisdeveloper.basicchat.service.SseFrameEmitter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.listener.ChannelTopic;
-import org.springframework.data.redis.listener.adapter.MessageListenerAdapter;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
-import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
-import java.io.IOException;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.function.Function;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 
 @RestController
@@ -35,51 +48,142 @@ public class ChatController {
     @Autowired
     private RoomsRepository roomsRepository;
 
+    @Autowired
+    private JsonCodec jsonCodec;
+
+    @Autowired
+    private MessageIdGenerator messageIdGenerator;
+
     @Autowired
     ChannelTopic topic;
 
     @Autowired
-    MessageListenerAdapter messageListener;
+    RedisMessageSubscriber redisMessageSubscriber;
+
+    @Autowired
+    SseDeliveryService sseDeliveryService;
+
+    @Autowired
+    PresenceService presenceService;
+
+    @Autowired
+    private PayloadLogSampler payloadLogSampler;
+
+    @Value("${chat.sse.replay-history-limit:50}")
+    private int replayHistoryLimit;
 
+    /**
+     * Open the event stream of a user. A client which reconnects sends the id of the last event it has received
+     * (the browser sends the Last-Event-ID header by itself), the events it missed meanwhile are sent first.
+     * The stream of a user which doesn't exist is refused, it would make an unknown id online.
+     */
     @RequestMapping("/stream")
-    public SseEmitter streamSseMvc(@RequestParam int userId) {
-        AtomicBoolean isComplete = new AtomicBoolean(false);
-        SseEmitter emitter = new SseEmitter();
-
-        Function<String, Integer> handler = (String message) -> {
-            SseEmitter.SseEventBuilder event = SseEmitter.event()
-                    .data(message);
-            try {
-                emitter.send(event);
-            } catch (IOException e) {
-                // This may occur when the client was disconnected.
-                return 1;
-            }
-            return 0;
-        };
+    public ResponseEntity<SseFrameEmitter> streamSseMvc(@RequestParam int userId,
+                                   @RequestHeader(value = "Last-Event-ID", required = false) String lastEventIdHeader,
+                                   @RequestParam(value = "lastEventId", required = false) String lastEventIdParam) {
+        if (usersRepository.getUsernames(Collections.singleton(userId)).isEmpty()) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+        }
+        SseFrameEmitter emitter = new SseFrameEmitter();
+
+        // Messages are not written by the Redis listener thread directly: each stream gets its own bounded
+        // send queue which is drained by the SSE writer threads.
+        SseConnection connection = sseDeliveryService.open(userId, emitter);
 
         // RedisMessageSubscriber is a global class which subscribes to the "MESSAGES" channel
         // However once the /stream endpoint is invoked, it's necessary to notify the global subscriber
         // that such client-server subscription exists.
         //
-        // We send the callback to the subscriber with the SSE instance for sending server-side events.
-        RedisMessageSubscriber redisMessageSubscriber = (RedisMessageSubscriber) messageListener.getDelegate();
-        redisMessageSubscriber.attach(handler);
-
-        // Make sure all life-time methods are covered here and remove the handler from the global subscriber.
-        Runnable onDetach = () -> {
-            redisMessageSubscriber.detach(handler);
-            if (!isComplete.get()) {
-                isComplete.set(true);
-                emitter.complete();
+        // We send the connection to the subscriber, together with the rooms of the user,
+        // so only messages of those rooms are routed to this stream, and the node starts receiving
+        // the messages of the rooms none of its users was in so far.
+        Set<String> roomIds = roomsRepository.getUserRoomIds(userId);
+        if (roomIds == null) {
+            roomIds = Collections.emptySet();
+        }
+        SseEventId lastEventId = SseEventId.parse(lastEventIdHeader != null ? lastEventIdHeader : lastEventIdParam);
+        if (lastEventId == null) {
+            redisMessageSubscriber.attach(connection, roomIds);
+        } else if (redisMessageSubscriber.canReplay(lastEventId, roomIds)) {
+            // Reconnected to the same node shortly after, the missed events are still in its replay buffer.
+            redisMessageSubscriber.attach(connection, roomIds, lastEventId.getSequence(), Collections.emptyList(),
+                    Collections.emptySet());
+            sseDeliveryService.recordReplay(true);
+        } else {
+            // The events were sent by another node, too long ago, or in rooms this node stopped receiving once
+            // the user left: resend the messages stored since then,
+            // followed by the events delivered by this node while they are loaded.
+            long replayAfter = redisMessageSubscriber.getLastSequence();
+            Set<Long> historyMessageIds = new HashSet<>();
+            List<SseFrame> history = getMissedMessages(roomIds, lastEventId, historyMessageIds);
+            redisMessageSubscriber.attach(connection, roomIds, replayAfter, history, historyMessageIds);
+            sseDeliveryService.recordReplay(false);
+        }
+
+        // The connection is closed on completion, timeout, error or failed send of the emitter,
+        // make sure the global subscriber forgets it in all those cases.
+        connection.onClose(() -> redisMessageSubscriber.detach(connection));
+
+        // The user is online as long as a node holds one of their streams.
+        presenceService.connectionOpened(userId);
+        connection.onClose(() -> presenceService.connectionClosed(userId));
+
+        return ResponseEntity.ok(emitter);
+    }
+
+    /**
+     * The messages of the rooms stored since the given event, at most replayHistoryLimit per room, in the order of
+     * their ids. Events other than messages (e.g. "user.connected") are not stored and can't be replayed. All the
+     * rooms are read in one round trip, as every client reconnects at once e.g. after a deploy.
+     *
+     * @param messageIds filled with the ids of the messages
+     */
+    private List<SseFrame> getMissedMessages(Set<String> roomIds, SseEventId lastEventId, Set<Long> messageIds) {
+        List<SseFrame> frames = new ArrayList<>();
+        if (roomIds.isEmpty()) {
+            return frames;
+        }
+        Map<String, List<byte[]>> missed =
+                roomsRepository.getMessagesSince(roomIds, lastEventId.getTimestampMillis(), replayHistoryLimit);
+        List<MissedMessage> messages = new ArrayList<>();
+        for (List<byte[]> roomMessages : missed.values()) {
+            for (byte[] json : roomMessages) {
+                Message stored = jsonCodec.readMessage(new String(json, StandardCharsets.UTF_8));
+                MissedMessage message = new MissedMessage(json, stored);
+                messages.add(message);
+                if (message.id != null) {
+                    messageIds.add(message.id);
+                }
             }
-        };
+        }
+        messages.sort(Comparator.comparingLong(MissedMessage::getOrder));
+        for (MissedMessage message : messages) {
+            // Every message gets its own id, a client disconnected again resumes after the last one it has received.
+            SseEventId eventId = lastEventId.withTimestamp(message.getTimestampMillis());
+            frames.add(SseFrame.event(eventId.toString(), jsonCodec.wrapMessageEvent(message.json)));
+        }
+        return frames;
+    }
 
-        emitter.onCompletion(onDetach);
-        emitter.onError((err) -> onDetach.run());
-        emitter.onTimeout(onDetach);
+    private static class MissedMessage {
+        final byte[] json;
+        final Long id;
+        final int date;
 
-        return emitter;
+        MissedMessage(byte[] json, Message message) {
+            this.json = json;
+            this.id = message.getId();
+            this.date = message.getDate();
+        }
+
+        // The order of the stored scores: messages without an id are scored by their date, below all the ids.
+        long getOrder() {
+            return id != null ? id : date;
+        }
+
+        long getTimestampMillis() {
+            return id != null ? MessageId.getTimestampMillis(id) : date * 1000L;
+        }
     }
 
     /**
@@ -87,21 +191,26 @@ public class ChatController {
      */
     @RequestMapping(value = "/emit", produces = MediaType.APPLICATION_JSON_VALUE)
     public ResponseEntity<Object> get(@RequestBody ChatControllerMessage chatMessage) {
-        Gson gson = new Gson();
-        String serializedMessage;
+        byte[] serializedMessage;
 
-        LOGGER.info("Received message: "+chatMessage.toString());
+        if (LOGGER.isDebugEnabled() && payloadLogSampler.sample()) {
+            LOGGER.debug("Received message of type {}: {}", chatMessage.getType(), chatMessage.getData());
+        }
 
         if (chatMessage.getType() == MessageType.MESSAGE) {
-            serializedMessage = handleRegularMessageCase(chatMessage);
-        } else if (chatMessage.getType() == MessageType.USER_CONNECTED
+            // Regular messages are stored and published in one step.
+            handleRegularMessageCase(chatMessage);
+            return ResponseEntity.status(HttpStatus.OK).build();
+        }
+
+        if (chatMessage.getType() == MessageType.USER_CONNECTED
                 || chatMessage.getType() == MessageType.USER_DISCONNECTED) {
-            // User-related events cover connection cases.
-            serializedMessage = handleUserConnectionCase(chatMessage);
-        } else {
-            // This is an unknown message type. For those we just send the raw string in the data parameter.
-            serializedMessage = gson.toJson(new PubSubMessage<>(chatMessage.getType().value(), chatMessage.getData()));
+            // Presence follows the streams held by the nodes (see PresenceService), a client can't mark any user
+            // online or offline. The clients still send these events, so they're accepted and ignored.
+            return ResponseEntity.status(HttpStatus.OK).build();
         }
+        // This is an unknown message type. For those we just send the raw string in the data parameter.
+        serializedMessage = jsonCodec.writeRawEvent(chatMessage.getType().value(), chatMessage.getData());
 
         // Finally, send the serialized json to Redis.
         roomsRepository.sendMessageToRedis(topic.getTopic(), serializedMessage);
@@ -109,30 +218,17 @@ public class ChatController {
         return ResponseEntity.status(HttpStatus.OK).build();
     }
 
-    private String handleRegularMessageCase(ChatControllerMessage chatMessage){
-        Gson gson = new Gson();
+    private void handleRegularMessageCase(ChatControllerMessage chatMessage){
         // We've received a message from user. It's necessary to deserialize it first.
-        Message message = gson.fromJson(chatMessage.getData(), Message.class);
-        // Add the user who sent the message to online list.
-        usersRepository.addUserToOnlineList(message.getFrom());
-        //redisTemplate.opsForSet().add(ONLINE_USERS_KEY, message.getFrom());
-        // Write the message to DB.
-        roomsRepository.saveMessage(message);
-        // Finally create the serialized output which would go to pub/sub
-        return gson.toJson(new PubSubMessage<>(chatMessage.getType().value(), message));
-    }
-
-    private String handleUserConnectionCase(ChatControllerMessage chatMessage){
-        Gson gson = new Gson();
-        int userId = chatMessage.getUser().getId();
-        String messageType = chatMessage.getType().value();
-        User serializedUser = gson.fromJson(chatMessage.getData(), User.class);
-        String serializedMessage = gson.toJson(new PubSubMessage<>(messageType, serializedUser));
-        if (chatMessage.getType() == MessageType.USER_CONNECTED) {
-            usersRepository.addUserToOnlineList(String.valueOf(userId));
-        } else {
-            usersRepository.removeUserFromOnlineList(String.valueOf(userId));
-        }
-        return serializedMessage;
+        Message message = jsonCodec.readMessage(chatMessage.getData());
+        // The server orders the messages: the id is assigned here, and the date sent by the client is replaced by
+        // the time of the id, so it can't move the message in the history.
+        long id = messageIdGenerator.nextId();
+        message.setId(id);
+        message.setDate((int) (MessageId.getTimestampMillis(id) / 1000));
+        // Add the user who sent the message to online list, write the message to DB and make it visible to the
+        // other nodes. This is a single atomic script call, so a message is never stored without being delivered
+        // or vice versa.
+        roomsRepository.ingestMessage(message);
     }
 }
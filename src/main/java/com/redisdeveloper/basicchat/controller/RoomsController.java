@@ -1,65 +1,118 @@
 package com.redisdeveloper.basicchat.controller;
 
-import com.google.gson.Gson;
-import com.redisdeveloper.basicchat.model.Message;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.redisdeveloper.basicchat.codec.JsonCodec;
+import com.redisdeveloper.basicchat.model.MessageType;
+import com.redisdeveloper.basicchat.model.PrivateRoomData;
 import com.redisdeveloper.basicchat.model.Room;
-import com.redisdeveloper.basicchat.model.User;
+import com.redisdeveloper.basicchat.model.StoredMessagePage;
 import com.redisdeveloper.basicchat.repository.RoomsRepository;
 import com.redisdeveloper.basicchat.repository.UsersRepository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 
 
 @RestController
-@RequestMapping("/rooms")
 public class RoomsController {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(AuthController.class);
 
+    private static final int MAX_PAGE_SIZE = 100;
+
+    private static final byte[] PAGE_MESSAGES_FIELD = "{\"messages\":".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] PAGE_NEXT_FIELD = ",\"next\":".getBytes(StandardCharsets.UTF_8);
+
     @Autowired
     private RoomsRepository roomsRepository;
 
     @Autowired
     private UsersRepository usersRepository;
 
+    @Autowired
+    private JsonCodec jsonCodec;
+
+    @Autowired
+    private ChannelTopic topic;
+
     /**
      * Get rooms for specific user id.
      */
-    @GetMapping(value = "user/{userId}", produces = MediaType.APPLICATION_JSON_VALUE)
+    @GetMapping(value = "/rooms/user/{userId}", produces = MediaType.APPLICATION_JSON_VALUE)
     public ResponseEntity<List<Room>> getRooms(@PathVariable int userId) {
         Set<String> roomIds = roomsRepository.getUserRoomIds(userId);
         if (roomIds == null) {
             return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
         }
-        List<Room> rooms = new ArrayList<>();
+        // Existence and names of all rooms are fetched in one pipeline, and the usernames of all private
+        // chat participants in another one, so the number of round trips doesn't depend on the room count.
+        Map<String, String> roomNames = roomsRepository.getExistingRoomNames(roomIds);
+        Set<Integer> privateRoomUserIds = new HashSet<>();
+        for (Map.Entry<String, String> room : roomNames.entrySet()) {
+            if (room.getValue() == null) {
+                for (String participantId : parseUserIds(room.getKey())) {
+                    privateRoomUserIds.add(Integer.parseInt(participantId));
+                }
+            }
+        }
+        Map<Integer, String> usernames = privateRoomUserIds.isEmpty()
+                ? Collections.emptyMap()
+                : usersRepository.getUsernames(privateRoomUserIds);
 
-        for (String roomId : roomIds) {
-            boolean roomExists = roomsRepository.isRoomExists(roomId);
-            if (roomExists){
-                String name = roomsRepository.getRoomNameById(roomId);
-                if (name == null) {
-                    // private chat case
-                    Room privateRoom = handlePrivateRoomCase(roomId);
-                    if (privateRoom == null){
-                        return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
-                    }
-                    rooms.add(privateRoom);
-                } else {
-                    rooms.add(new Room(roomId, name));
+        List<Room> rooms = new ArrayList<>();
+        for (Map.Entry<String, String> room : roomNames.entrySet()) {
+            String roomId = room.getKey();
+            String name = room.getValue();
+            if (name == null) {
+                // private chat case
+                Room privateRoom = handlePrivateRoomCase(roomId, usernames);
+                if (privateRoom == null){
+                    return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
                 }
+                rooms.add(privateRoom);
+            } else {
+                rooms.add(new Room(roomId, name));
             }
         }
         return new ResponseEntity<>(rooms, HttpStatus.OK);
     }
 
+    /**
+     * Create the private room of two users. Every node is told with a "show.room" event: it starts receiving the
+     * messages of the room if one of the users is connected to it, and their clients add the room to their list.
+     */
+    @PostMapping(value = "/room", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<Room> createPrivateRoom(@RequestBody PrivateRoomData roomData) {
+        int userId1 = roomData.getUser1();
+        int userId2 = roomData.getUser2();
+        if (userId1 == userId2) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+        Map<Integer, String> usernames = usersRepository.getUsernames(Arrays.asList(userId1, userId2));
+        if (usernames.get(userId1) == null || usernames.get(userId2) == null) {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
+        String roomId = roomsRepository.createPrivateRoom(userId1, userId2);
+        Room room = new Room(roomId, usernames.get(userId1), usernames.get(userId2));
+        roomsRepository.sendMessageToRedis(topic.getTopic(),
+                jsonCodec.writeRoomEvent(MessageType.SHOW_ROOM.value(), room));
+        return new ResponseEntity<>(room, HttpStatus.OK);
+    }
+
     private String[] parseUserIds(String roomId){
         String[] userIds = roomId.split(":");
         if (userIds.length != 2){
@@ -69,40 +122,94 @@ public class RoomsController {
         return userIds;
     }
 
-    private Room handlePrivateRoomCase(String roomId){
+    private Room handlePrivateRoomCase(String roomId, Map<Integer, String> usernames){
         String[] userIds = parseUserIds(roomId);
-        User firstUser = usersRepository.getUserById(Integer.parseInt(userIds[0]));
-        User secondUser = usersRepository.getUserById(Integer.parseInt(userIds[1]));
-        if (firstUser == null || secondUser == null){
-            LOGGER.error("Users were not found by ids: "+ Arrays.toString(userIds));
+        String firstUsername = usernames.get(Integer.parseInt(userIds[0]));
+        String secondUsername = usernames.get(Integer.parseInt(userIds[1]));
+        if (firstUsername == null || secondUsername == null){
+            LOGGER.error("Users were not found by ids: {}", Arrays.toString(userIds));
             return null;
         }
-        return new Room(roomId, firstUser.getUsername(), secondUser.getUsername());
+        return new Room(roomId, firstUsername, secondUsername);
     }
 
     /**
      * Get Messages.
+     * The messages are read as json, so they are streamed into the response array as they are instead of
+     * being parsed into Message objects and serialized again. Corrupt entries are skipped.
+     */
+    @GetMapping(value = "/rooms/messages/{roomId}", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> getMessages(@PathVariable String roomId, @RequestParam int offset,
+                                                             @RequestParam int size) {
+        // A missing room simply has no messages, so there is no need for a separate EXISTS round trip.
+        List<byte[]> values = roomsRepository.getMessages(roomId, offset, size);
+        StreamingResponseBody body = outputStream -> writeMessages(outputStream, roomId, values);
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+    }
+
+    /**
+     * Get a page of messages, newest first. The first page is requested without "before", the following ones
+     * with the "next" cursor of the previous page. The messages are streamed like those of
+     * {@link #getMessages(String, int, int)}, into {"messages": [...], "next": cursor}.
      */
-    @GetMapping(value = "messages/{roomId}", produces = MediaType.APPLICATION_JSON_VALUE)
-    public ResponseEntity<List<Message>> getMessages(@PathVariable String roomId, @RequestParam int offset, @RequestParam int size) {
-        boolean roomExists = roomsRepository.isRoomExists(roomId);
-        List<Message> messages = new ArrayList<>();
-        if (roomExists) {
-            Set<String> values = roomsRepository.getMessages(roomId, offset, size);
-            for (String value : values) {
-                messages.add(deserialize(value));
+    @GetMapping(value = "/rooms/messages/{roomId}", params = "limit", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> getMessagesPage(@PathVariable String roomId,
+                                                                 @RequestParam(required = false) String before,
+                                                                 @RequestParam int limit) {
+        if (limit < 1 || limit > MAX_PAGE_SIZE) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+        StoredMessagePage page;
+        try {
+            page = roomsRepository.getMessagesBefore(roomId, before, limit);
+        } catch (IllegalArgumentException e) {
+            LOGGER.debug("Invalid cursor: {}", before);
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+        byte[] next = jsonCodec.writeStringBytes(page.getNext());
+        StreamingResponseBody body = outputStream -> {
+            outputStream.write(PAGE_MESSAGES_FIELD);
+            writeMessages(outputStream, roomId, page.getMessages());
+            outputStream.write(PAGE_NEXT_FIELD);
+            outputStream.write(next);
+            outputStream.write('}');
+        };
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+    }
+
+    private static void writeMessages(OutputStream outputStream, String roomId, List<byte[]> values)
+            throws IOException {
+        boolean first = true;
+        outputStream.write('[');
+        for (byte[] value : values) {
+            if (!isJsonObject(value)) {
+                LOGGER.error("Skipping corrupt message in room {}: {}", roomId,
+                        new String(value, StandardCharsets.UTF_8));
+                continue;
+            }
+            if (!first) {
+                outputStream.write(',');
             }
+            outputStream.write(value);
+            first = false;
         }
-        return new ResponseEntity<>(messages, HttpStatus.OK);
+        outputStream.write(']');
     }
 
-    private Message deserialize(String value){
-        Gson gson = new Gson();
-        try {
-            return gson.fromJson(value, Message.class);
-        } catch (Exception e) {
-            LOGGER.error(String.format("Couldn't deserialize json: %s", value), e);
+    /**
+     * Check that the value is exactly one well-formed json object. The tokens are only skipped,
+     * so no object tree is built.
+     */
+    private static boolean isJsonObject(byte[] value){
+        InputStreamReader in = new InputStreamReader(new ByteArrayInputStream(value), StandardCharsets.UTF_8);
+        try (JsonReader reader = new JsonReader(in)) {
+            if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                return false;
+            }
+            reader.skipValue();
+            return reader.peek() == JsonToken.END_DOCUMENT;
+        } catch (IOException | IllegalStateException e) {
+            return false;
         }
-        return null;
     }
 }
@@ -1,6 +1,6 @@
 package com.redisdeveloper.basicchat.controller;
 
-import com.google.gson.Gson;
+import com.redisdeveloper.basicchat.codec.JsonCodec;
 import com.redisdeveloper.basicchat.config.SessionAttrs;
 import com.redisdeveloper.basicchat.model.User;
 import com.redisdeveloper.basicchat.repository.UsersRepository;
@@ -29,6 +29,9 @@ public class UsersController {
     @Autowired
     private UsersRepository usersRepository;
 
+    @Autowired
+    private JsonCodec jsonCodec;
+
     /**
      * The request the client sends to check if it has the user is cached.
      */
@@ -36,18 +39,8 @@ public class UsersController {
     public ResponseEntity<Map<String, User>> get(@RequestParam(value = "ids") String idsString) {
         Set<Integer> ids = parseIds(idsString);
 
-        Map<String, User> usersMap = new HashMap<>();
-
-        for (Integer id : ids) {
-            User user = usersRepository.getUserById(id);
-            if (user == null){
-                LOGGER.debug("User not found by id: "+id);
-                return new ResponseEntity<>(new HashMap<>(), HttpStatus.BAD_REQUEST);
-            }
-            usersMap.put(String.valueOf(user.getId()), user);
-        }
-
-        return new ResponseEntity<>(usersMap, HttpStatus.OK);
+        // Users which are not found are left out, the client still gets all the others.
+        return new ResponseEntity<>(toUsersMap(usersRepository.getUsersByIds(ids).values()), HttpStatus.OK);
     }
 
     private Set<Integer> parseIds(String idsString){
@@ -63,11 +56,10 @@ public class UsersController {
     public ResponseEntity<User> getMe(Model model, HttpSession session) {
         String user = (String) session.getAttribute(SessionAttrs.USER_ATTR_NAME);
         if (user == null){
-            LOGGER.debug("User not found in session by attribute: "+SessionAttrs.USER_ATTR_NAME);
+            LOGGER.debug("User not found in session by attribute: {}", SessionAttrs.USER_ATTR_NAME);
             return new ResponseEntity<>(null, HttpStatus.OK);
         }
-        Gson gson = new Gson();
-        return new ResponseEntity<>(gson.fromJson(user, User.class), HttpStatus.OK);
+        return new ResponseEntity<>(jsonCodec.readUser(user), HttpStatus.OK);
     }
 
     /**
@@ -76,22 +68,18 @@ public class UsersController {
      */
     @RequestMapping(value = "/online", produces = MediaType.APPLICATION_JSON_VALUE)
     public ResponseEntity<Map<String, User>> getOnline() {
-        Map<String, User> usersMap = new HashMap<>();
-        Set<Integer> onlineIds = usersRepository.getOnlineUsersIds();
-        if (onlineIds == null){
+        Collection<User> onlineUsers = usersRepository.getOnlineUsers().values();
+        if (onlineUsers.isEmpty()){
             LOGGER.debug("No online users found!");
-            return new ResponseEntity<>(new HashMap<>(), HttpStatus.OK);
         }
+        return new ResponseEntity<>(toUsersMap(onlineUsers), HttpStatus.OK);
+    }
 
-        for (Integer onlineId : onlineIds) {
-            User user = usersRepository.getUserById(onlineId);
-            if (user == null){
-                LOGGER.debug("User not found by id: "+onlineId);
-                return new ResponseEntity<>(new HashMap<>(), HttpStatus.INTERNAL_SERVER_ERROR);
-            }
+    private Map<String, User> toUsersMap(Collection<User> users){
+        Map<String, User> usersMap = new HashMap<>();
+        for (User user : users) {
             usersMap.put(String.valueOf(user.getId()), user);
         }
-
-        return new ResponseEntity<>(usersMap, HttpStatus.OK);
+        return usersMap;
     }
 }
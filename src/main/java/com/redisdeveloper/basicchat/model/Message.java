@@ -6,6 +6,8 @@ import lombok.Setter;
 @Getter
 @Setter
 public class Message {
+    // Assigned by the server on ingest, see MessageId. Null for messages stored before ids were assigned.
+    private Long id;
     private String from;
     private int date;
     private String message;
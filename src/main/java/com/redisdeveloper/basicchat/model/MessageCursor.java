@@ -0,0 +1,53 @@
+package com.redisdeveloper.basicchat.model;
+
+import lombok.Getter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Position in the history of a room, handed out to clients as an opaque string.
+ * It points right after the last returned message: the score of that message, and how many messages with
+ * exactly this score were already returned, so messages sharing a score are neither skipped nor repeated.
+ */
+@Getter
+public class MessageCursor {
+    private final double score;
+    private final int skip;
+
+    public MessageCursor(double score, int skip) {
+        this.score = score;
+        this.skip = skip;
+    }
+
+    /**
+     * Cursor pointing right after a page of messages.
+     *
+     * @param previous         cursor the page was read with, null for the first page
+     * @param lastScore        score of the last (oldest) message of the page
+     * @param countOfLastScore how many messages of the page have this score
+     */
+    public static MessageCursor after(MessageCursor previous, double lastScore, int countOfLastScore) {
+        if (previous != null && previous.getScore() == lastScore) {
+            return new MessageCursor(lastScore, previous.getSkip() + countOfLastScore);
+        }
+        return new MessageCursor(lastScore, countOfLastScore);
+    }
+
+    public String encode() {
+        String value = score + ":" + skip;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @throws IllegalArgumentException if the value is not a cursor handed out by {@link #encode()}
+     */
+    public static MessageCursor decode(String cursor) {
+        String value = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        String[] parts = value.split(":");
+        if (parts.length != 2) {
+            throw new IllegalArgumentException("Malformed cursor: " + cursor);
+        }
+        return new MessageCursor(Double.parseDouble(parts[0]), Integer.parseInt(parts[1]));
+    }
+}
@@ -0,0 +1,53 @@
+package com.redisdeveloper.basicchat.model;
+
+/**
+ * Layout of the message ids assigned by the server, Snowflake-like:
+ *
+ * <pre>
+ * timestamp  41 bits, milliseconds since 2020-01-01T00:00:00Z (until 2089)
+ * node        5 bits, node which assigned the id
+ * sequence    7 bits, messages of the node within the millisecond
+ * </pre>
+ *
+ * Ids fit in 53 bits, so they are exact as sorted set scores (doubles) and as JavaScript numbers. Messages stored
+ * before ids were assigned are scored by their date in seconds, which is always lower than any id.
+ */
+public final class MessageId {
+
+    public static final long EPOCH_MILLIS = 1577836800000L;
+
+    public static final int NODE_BITS = 5;
+    public static final int SEQUENCE_BITS = 7;
+    public static final int MAX_NODE = (1 << NODE_BITS) - 1;
+    public static final int MAX_SEQUENCE = (1 << SEQUENCE_BITS) - 1;
+
+    // Scores up to this one are dates in seconds, of messages without an id.
+    public static final double MAX_DATE_SCORE = Integer.MAX_VALUE;
+
+    private MessageId() {
+    }
+
+    public static long of(long timestampMillis, int node, int sequence) {
+        return ((timestampMillis - EPOCH_MILLIS) << (NODE_BITS + SEQUENCE_BITS))
+                | ((long) node << SEQUENCE_BITS)
+                | sequence;
+    }
+
+    public static long getTimestampMillis(long id) {
+        return (id >>> (NODE_BITS + SEQUENCE_BITS)) + EPOCH_MILLIS;
+    }
+
+    /**
+     * The lowest id which can be assigned at the given time.
+     */
+    public static long firstIdAt(long timestampMillis) {
+        return of(timestampMillis, 0, 0);
+    }
+
+    /**
+     * Date in seconds of the message stored with the given score, its id or its date.
+     */
+    public static long getDate(double score) {
+        return score > MAX_DATE_SCORE ? getTimestampMillis((long) score) / 1000 : (long) score;
+    }
+}
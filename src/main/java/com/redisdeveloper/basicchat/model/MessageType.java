@@ -5,7 +5,8 @@ import com.fasterxml.jackson.annotation.JsonValue;
 public enum MessageType {
     MESSAGE("message"),
     USER_CONNECTED("user.connected"),
-    USER_DISCONNECTED("user.disconnected");
+    USER_DISCONNECTED("user.disconnected"),
+    SHOW_ROOM("show.room");
 
     private final String value;
 
@@ -0,0 +1,11 @@
+package com.redisdeveloper.basicchat.model;
+
+import lombok.Getter;
+import lombok.Setter;
+
+@Getter
+@Setter
+public class PrivateRoomData {
+    private int user1;
+    private int user2;
+}
@@ -0,0 +1,21 @@
+package com.redisdeveloper.basicchat.model;
+
+import lombok.Getter;
+
+/**
+ * A message as it is stored in a room, in the format of the codec which stored it.
+ */
+@Getter
+public class StoredMessage {
+    // Stream entry id, null for a sorted set member.
+    private final String id;
+    // Date in seconds: the score of a sorted set member, the time of a stream entry.
+    private final long date;
+    private final byte[] value;
+
+    public StoredMessage(String id, long date, byte[] value) {
+        this.id = id;
+        this.date = date;
+        this.value = value;
+    }
+}
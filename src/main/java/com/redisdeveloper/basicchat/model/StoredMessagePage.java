@@ -0,0 +1,20 @@
+package com.redisdeveloper.basicchat.model;
+
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * A page of the history of a room as it is stored, i.e. the UTF-8 encoded json of the messages, newest first.
+ */
+@Getter
+public class StoredMessagePage {
+    private final List<byte[]> messages;
+    // Cursor of the next (older) page, null once the beginning of the history is reached.
+    private final String next;
+
+    public StoredMessagePage(List<byte[]> messages, String next) {
+        this.messages = messages;
+        this.next = next;
+    }
+}
@@ -0,0 +1,118 @@
+package com.redisdeveloper.basicchat.repository;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Repository;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Online users kept in a bitmap indexed by user id. It has its own key, so the backend can be switched back and
+ * forth; the users online in the set are copied into the bitmap when it's used for the first time.
+ * Ids above "chat.presence.max-user-id" are never marked online, so a forged sender id can't grow the bitmap.
+ */
+@Repository
+@ConditionalOnProperty(name = "chat.presence.backend", havingValue = "bitmap")
+public class BitmapPresenceStore implements PresenceStore, InitializingBean {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BitmapPresenceStore.class);
+
+    public static final String ONLINE_USERS_KEY = "online_users:bitmap";
+    private static final byte[] ONLINE_USERS_KEY_BYTES = ONLINE_USERS_KEY.getBytes(StandardCharsets.UTF_8);
+    private static final String FUNCTIONS = "scripts/presence/bitmap.lua";
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+
+    // The ids come from the clients, a single SETBIT at a high offset would allocate up to 512 MB.
+    @Value("${chat.presence.max-user-id:1000000}")
+    private int maxUserId;
+
+    @Override
+    public void afterPropertiesSet() {
+        Long copied = redisTemplate.execute(loadScript("scripts/presence_import_set.lua", Long.class),
+                Arrays.asList(ONLINE_USERS_KEY, SetPresenceStore.ONLINE_USERS_KEY));
+        if (copied != null && copied >= 0) {
+            LOGGER.info("Copied {} online users from the set into the bitmap", copied);
+        }
+    }
+
+    private boolean isOffset(int userId) {
+        return userId >= 0 && userId <= maxUserId;
+    }
+
+    @Override
+    public String getKey() {
+        return ONLINE_USERS_KEY;
+    }
+
+    @Override
+    public void markOnline(int userId) {
+        if (isOffset(userId)) {
+            redisTemplate.opsForValue().setBit(ONLINE_USERS_KEY, userId, true);
+        }
+    }
+
+    @Override
+    public void markOffline(int userId) {
+        if (isOffset(userId)) {
+            redisTemplate.opsForValue().setBit(ONLINE_USERS_KEY, userId, false);
+        }
+    }
+
+    /**
+     * The whole bitmap is read with a single GET.
+     */
+    @Override
+    public int[] getOnlineIds() {
+        byte[] bitmap = redisTemplate.execute(
+                (RedisCallback<byte[]>) connection -> connection.get(ONLINE_USERS_KEY_BYTES));
+        return decode(bitmap);
+    }
+
+    /**
+     * Decode a Redis bitmap into the offsets of its set bits, in ascending order. Redis numbers the bits of a byte
+     * from the most significant one. Apart from the result, nothing is allocated.
+     */
+    static int[] decode(byte[] bitmap) {
+        if (bitmap == null) {
+            return new int[0];
+        }
+        int count = 0;
+        for (byte b : bitmap) {
+            count += Integer.bitCount(b & 0xFF);
+        }
+        int[] ids = new int[count];
+        int index = 0;
+        for (int i = 0; i < bitmap.length; i++) {
+            int bits = bitmap[i] & 0xFF;
+            while (bits != 0) {
+                // Position of the highest set bit, counted from the most significant bit of the byte.
+                int bit = Integer.numberOfLeadingZeros(bits) - 24;
+                ids[index++] = i * 8 + bit;
+                bits &= ~(0x80 >>> bit);
+            }
+        }
+        return ids;
+    }
+
+    @Override
+    public long getOnlineCount() {
+        Long count = redisTemplate.execute(
+                (RedisCallback<Long>) connection -> connection.bitCount(ONLINE_USERS_KEY_BYTES));
+        return count != null ? count : 0;
+    }
+
+    @Override
+    public <T> RedisScript<T> loadScript(String path, Class<T> resultType) {
+        return LuaScripts.withFunctions("local max_user_id = " + maxUserId + "\n", FUNCTIONS, path, resultType);
+    }
+}
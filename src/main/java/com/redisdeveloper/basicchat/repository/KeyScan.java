@@ -0,0 +1,49 @@
+package com.redisdeveloper.basicchat.repository;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.connection.DataType;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Iterate over the keyspace with SCAN, so Redis isn't blocked the way KEYS would.
+ */
+final class KeyScan {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(KeyScan.class);
+
+    private static final int SCAN_COUNT = 500;
+
+    private KeyScan() {
+    }
+
+    /**
+     * Keys matching the pattern which hold a value of the given type.
+     */
+    static List<String> findKeys(StringRedisTemplate redisTemplate, String pattern, DataType type) {
+        List<String> keys = new ArrayList<>();
+        redisTemplate.execute((RedisCallback<Object>) connection -> {
+            ScanOptions options = ScanOptions.scanOptions().match(pattern).count(SCAN_COUNT).build();
+            try (Cursor<byte[]> cursor = connection.scan(options)) {
+                while (cursor.hasNext()) {
+                    byte[] key = cursor.next();
+                    if (connection.type(key) == type) {
+                        keys.add(new String(key, StandardCharsets.UTF_8));
+                    }
+                }
+            } catch (IOException e) {
+                LOGGER.warn("Failed to close the scan cursor", e);
+            }
+            return null;
+        });
+        return keys;
+    }
+}
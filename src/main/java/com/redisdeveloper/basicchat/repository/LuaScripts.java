@@ -0,0 +1,39 @@
+package com.redisdeveloper.basicchat.repository;
+
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.util.StreamUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Lua scripts sharing functions: Redis scripts can't include other scripts, so the functions are prepended.
+ */
+final class LuaScripts {
+
+    private LuaScripts() {
+    }
+
+    static <T> RedisScript<T> withFunctions(String functionsPath, String scriptPath, Class<T> resultType) {
+        return withFunctions("", functionsPath, scriptPath, resultType);
+    }
+
+    /**
+     * @param prelude Lua code run before the functions, e.g. to set the constants they use
+     */
+    static <T> RedisScript<T> withFunctions(String prelude, String functionsPath, String scriptPath,
+                                            Class<T> resultType) {
+        return RedisScript.of(prelude + read(functionsPath) + read(scriptPath), resultType);
+    }
+
+    private static String read(String path) {
+        try (InputStream in = new ClassPathResource(path).getInputStream()) {
+            return StreamUtils.copyToString(in, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to read the script " + path, e);
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package com.redisdeveloper.basicchat.repository;
+
+import com.redisdeveloper.basicchat.codec.MessageCodec;
+import com.redisdeveloper.basicchat.model.StoredMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Local archive of the messages removed from Redis by the retention, enabled with "chat.retention.archive.enabled".
+ * Each room has an append-only segment file in "chat.retention.archive.dir", holding its messages oldest first
+ * as length-prefixed records:
+ *
+ * <pre>
+ * length    4 bytes, length of the value
+ * date      8 bytes, date of the message in seconds
+ * value     the message as it was stored, in the format of the codec which stored it
+ * </pre>
+ *
+ * The position of the records of a room is indexed in memory the first time the room is read or appended to.
+ * A record cut short by a crash is dropped by the next append.
+ */
+@Component
+public class MessageArchive {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MessageArchive.class);
+
+    private static final String SEGMENT_FILE = "room-%s.seg";
+    private static final int RECORD_HEADER_LENGTH = 4 + 8;
+
+    @Autowired
+    private MessageCodec messageCodec;
+
+    @Value("${chat.retention.archive.enabled:false}")
+    private boolean enabled;
+
+    @Value("${chat.retention.archive.dir:archive}")
+    private String dir;
+
+    private final Map<String, Segment> segments = new HashMap<>();
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Append messages of a room, oldest first. They are flushed to the disk before returning, so they can be
+     * removed from Redis afterwards.
+     */
+    public synchronized void append(String roomId, List<StoredMessage> messages) throws IOException {
+        Segment segment = getSegment(roomId);
+        int length = 0;
+        for (StoredMessage message : messages) {
+            if (message.getValue() != null) {
+                length += RECORD_HEADER_LENGTH + message.getValue().length;
+            }
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        List<Long> positions = new ArrayList<>(messages.size());
+        for (StoredMessage message : messages) {
+            if (message.getValue() == null) {
+                continue;
+            }
+            positions.add(segment.end + buffer.position());
+            buffer.putInt(message.getValue().length).putLong(message.getDate()).put(message.getValue());
+        }
+        buffer.flip();
+
+        Files.createDirectories(segment.path.getParent());
+        try (FileChannel channel =
+                     FileChannel.open(segment.path, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            if (channel.size() > segment.end) {
+                LOGGER.warn("Dropping a partial record at the end of {}", segment.path);
+                channel.truncate(segment.end);
+            }
+            long position = segment.end;
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            channel.force(false);
+        }
+        for (long position : positions) {
+            segment.add(position);
+        }
+        segment.end += length;
+    }
+
+    public synchronized long countMessages(String roomId) {
+        return enabled ? getSegment(roomId).count : 0;
+    }
+
+    /**
+     * Read the archived messages of a room, newest first, as json. Offset 0 is the newest archived message.
+     */
+    public synchronized List<byte[]> getMessages(String roomId, long offset, int size) {
+        if (!enabled || offset < 0 || size <= 0) {
+            return Collections.emptyList();
+        }
+        Segment segment = getSegment(roomId);
+        long first = segment.count - 1 - offset;
+        if (first < 0) {
+            return Collections.emptyList();
+        }
+        long last = Math.max(0, first - size + 1);
+        List<byte[]> messages = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(segment.path, StandardOpenOption.READ)) {
+            for (long i = first; i >= last; i--) {
+                byte[] json = messageCodec.toJson(readValue(channel, segment.positions[(int) i]), roomId);
+                if (json != null) {
+                    messages.add(json);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to read the archive of room " + roomId, e);
+        }
+        return messages;
+    }
+
+    private static byte[] readValue(FileChannel channel, long position) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_LENGTH);
+        readFully(channel, header, position);
+        ByteBuffer value = ByteBuffer.allocate(header.getInt(0));
+        readFully(channel, value, position + RECORD_HEADER_LENGTH);
+        return value.array();
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new IOException("Unexpected end of the archive at " + position);
+            }
+        }
+    }
+
+    private Segment getSegment(String roomId) {
+        Segment segment = segments.get(roomId);
+        if (segment == null) {
+            Path path = Paths.get(dir, String.format(SEGMENT_FILE, URLEncoder.encode(roomId, StandardCharsets.UTF_8)));
+            try {
+                segment = Segment.load(path);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to read the archive of room " + roomId, e);
+            }
+            segments.put(roomId, segment);
+        }
+        return segment;
+    }
+
+    private static class Segment {
+        final Path path;
+        // Position of each complete record, oldest first.
+        long[] positions = new long[16];
+        int count;
+        // End of the last complete record.
+        long end;
+
+        Segment(Path path) {
+            this.path = path;
+        }
+
+        void add(long position) {
+            if (count == positions.length) {
+                positions = Arrays.copyOf(positions, count * 2);
+            }
+            positions[count++] = position;
+        }
+
+        static Segment load(Path path) throws IOException {
+            Segment segment = new Segment(path);
+            if (!Files.exists(path)) {
+                return segment;
+            }
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                long size = channel.size();
+                ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_LENGTH);
+                while (segment.end + RECORD_HEADER_LENGTH <= size) {
+                    header.clear();
+                    readFully(channel, header, segment.end);
+                    int length = header.getInt(0);
+                    long next = segment.end + RECORD_HEADER_LENGTH + length;
+                    if (length < 0 || next > size) {
+                        break;
+                    }
+                    segment.add(segment.end);
+                    segment.end = next;
+                }
+            }
+            return segment;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.redisdeveloper.basicchat.repository;
+
+import com.redisdeveloper.basicchat.model.Message;
+import com.redisdeveloper.basicchat.model.StoredMessage;
+import com.redisdeveloper.basicchat.model.StoredMessagePage;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Storage of the messages of the rooms. The engine is picked with the "chat.storage" property:
+ * "zset" (default) keeps a sorted set per room scored by the message id (the date in seconds for messages
+ * stored before ids were assigned) and publishes new messages over pub/sub, "stream" appends them to a Redis
+ * Stream per room which the nodes read with XREAD.
+ */
+public interface MessageStore {
+
+    /**
+     * Key holding the messages of the room, it only exists once the room has messages.
+     */
+    String getRoomKey(String roomId);
+
+    /**
+     * Store a message sent by a user, mark the sender as online and make the message visible to the other nodes.
+     *
+     * @param markSenderOnline false if the sender is known to be online already, saves a write to "online_users"
+     * @return the position the message was stored at (its score, or its stream entry id)
+     */
+    String ingestMessage(Message message, boolean markSenderOnline);
+
+    /**
+     * Ingest several messages like {@link #ingestMessage(Message, boolean)}, in order, in a single atomic round trip.
+     *
+     * @param markSendersOnline whether to mark the sender of the message at the same index as online
+     * @return the positions the messages were stored at, in the same order
+     */
+    List<String> ingestMessages(List<Message> messages, List<Boolean> markSendersOnline);
+
+    /**
+     * Store a message without delivering it, e.g. for demo data.
+     */
+    void saveMessage(Message message);
+
+    /**
+     * Read the stored messages of a room, newest first, as UTF-8 encoded json whatever format they were stored in.
+     */
+    List<byte[]> getMessages(String roomId, int offset, int size);
+
+    /**
+     * Read a page of the history of a room, newest first.
+     *
+     * @param before cursor handed out as "next" of the previous page, null for the newest messages
+     * @throws IllegalArgumentException if the cursor was not handed out by this store
+     */
+    StoredMessagePage getMessagesBefore(String roomId, String before, int limit);
+
+    /**
+     * Read the messages of several rooms stored since the given time, oldest first, in one round trip. The store
+     * may return a few messages stored right before it, e.g. when it only keeps the time to the second.
+     *
+     * @param limit maximum number of messages of each room
+     * @return the messages of each room, in the order of the given ids
+     */
+    Map<String, List<byte[]>> getMessagesSince(Collection<String> roomIds, long timestampMillis, int limit);
+
+    /**
+     * Ids of the rooms which have messages. The keyspace is scanned, this is meant for background jobs.
+     */
+    List<String> findRoomIds();
+
+    long countMessages(String roomId);
+
+    /**
+     * Read the oldest messages of a room as they are stored, oldest first.
+     */
+    List<StoredMessage> getOldestMessages(String roomId, int limit);
+
+    /**
+     * Remove messages read with {@link #getOldestMessages(String, int)}.
+     */
+    void removeMessages(String roomId, List<StoredMessage> messages);
+}
@@ -0,0 +1,217 @@
+package com.redisdeveloper.basicchat.repository;
+
+import com.redisdeveloper.basicchat.model.Message;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Write-behind of the ingested messages with group commit, enabled with "chat.storage.write-behind.enabled".
+ * The request threads put their message into a bounded queue and wait for it to be committed. A flusher thread
+ * takes the queued messages, up to max-batch of them, waiting at most linger-millis for more after the first one,
+ * and ingests them with a single script call, which acknowledges all their requests at once.
+ *
+ * Under load a round trip to Redis stores many messages instead of one, at the cost of up to linger-millis of
+ * latency. A message is acknowledged only once it's stored, so nothing acknowledged is lost if the node stops.
+ *
+ * A request which times out cancels its message, unless the flusher has taken it into a batch already: then the
+ * request waits for that commit instead. So a request which fails with the timeout never has its message stored,
+ * and the client can send it again without storing it twice.
+ */
+@Component
+public class MessageWriteBehind implements InitializingBean, DisposableBean {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MessageWriteBehind.class);
+
+    private static final long POLL_MILLIS = 100;
+
+    @Autowired
+    private MessageStore messageStore;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${chat.storage.write-behind.enabled:false}")
+    private boolean enabled;
+
+    @Value("${chat.storage.write-behind.max-batch:128}")
+    private int maxBatch;
+
+    @Value("${chat.storage.write-behind.linger-millis:2}")
+    private long lingerMillis;
+
+    @Value("${chat.storage.write-behind.queue-capacity:4096}")
+    private int queueCapacity;
+
+    @Value("${chat.storage.write-behind.timeout-millis:5000}")
+    private long timeoutMillis;
+
+    private BlockingQueue<PendingMessage> queue;
+    private DistributionSummary batchSizes;
+    private volatile boolean running;
+    private Thread thread;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        if (!enabled) {
+            return;
+        }
+        queue = new ArrayBlockingQueue<>(queueCapacity);
+        Gauge.builder("chat.storage.write-behind.queue", queue, Collection::size)
+                .description("Messages waiting to be committed")
+                .register(meterRegistry);
+        batchSizes = DistributionSummary.builder("chat.storage.write-behind.batch")
+                .description("Messages committed together")
+                .register(meterRegistry);
+        running = true;
+        thread = new Thread(this::run, "message-write-behind");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        if (thread == null) {
+            return;
+        }
+        // The queued messages are still committed, their requests are waiting for it.
+        running = false;
+        thread.join(timeoutMillis);
+    }
+
+    /**
+     * Queue a message and wait until it's committed together with the other queued ones. A full queue blocks the
+     * caller, which slows the clients down to the rate Redis keeps up with.
+     *
+     * @return the position the message was stored at, see {@link MessageStore#ingestMessage(Message, boolean)}
+     * @throws IllegalStateException if the message wasn't taken into a batch within timeout-millis, it's not stored
+     */
+    public String ingest(Message message, boolean markSenderOnline) {
+        PendingMessage pending = new PendingMessage(message, markSenderOnline);
+        try {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            if (!running || !queue.offer(pending, timeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new IllegalStateException("The write-behind queue is full or stopped");
+            }
+            try {
+                return pending.result.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                if (pending.claim()) {
+                    throw new IllegalStateException("The message wasn't stored within " + timeoutMillis + " ms", e);
+                }
+                // The message is being committed, the request gets the outcome of the script call.
+                return pending.result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            // Stored anyway if the flusher has taken it already.
+            pending.claim();
+            throw new IllegalStateException("Interrupted while waiting for the message to be stored", e);
+        } catch (ExecutionException e) {
+            // Fail the request with the exception of the script call, as if it was made by the request thread.
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private void run() {
+        List<PendingMessage> batch = new ArrayList<>(maxBatch);
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingMessage first = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long lingerEnd = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+                while (batch.size() < maxBatch) {
+                    // Everything queued meanwhile joins the batch, the linger only applies to an empty queue.
+                    if (queue.drainTo(batch, maxBatch - batch.size()) > 0) {
+                        continue;
+                    }
+                    long wait = lingerEnd - System.nanoTime();
+                    PendingMessage next = wait > 0 ? queue.poll(wait, TimeUnit.NANOSECONDS) : null;
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                commit(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void commit(List<PendingMessage> queued) {
+        List<PendingMessage> batch = new ArrayList<>(queued.size());
+        List<Message> messages = new ArrayList<>(queued.size());
+        List<Boolean> markSendersOnline = new ArrayList<>(queued.size());
+        for (PendingMessage pending : queued) {
+            // Skips the messages whose request has timed out.
+            if (pending.claim()) {
+                batch.add(pending);
+                messages.add(pending.message);
+                markSendersOnline.add(pending.markSenderOnline);
+            }
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            List<String> positions = messageStore.ingestMessages(messages, markSendersOnline);
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).result.complete(positions.get(i));
+            }
+            batchSizes.record(batch.size());
+        } catch (RuntimeException e) {
+            LOGGER.error("Failed to store a batch of {} messages", batch.size(), e);
+            for (PendingMessage pending : batch) {
+                pending.result.completeExceptionally(e);
+            }
+        }
+    }
+
+    private static class PendingMessage {
+        final Message message;
+        final boolean markSenderOnline;
+        final CompletableFuture<String> result = new CompletableFuture<>();
+        // Claimed either by the flusher to commit the message, or by the request to cancel it.
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        PendingMessage(Message message, boolean markSenderOnline) {
+            this.message = message;
+            this.markSenderOnline = markSenderOnline;
+        }
+
+        boolean claim() {
+            return claimed.compareAndSet(false, true);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.redisdeveloper.basicchat.repository;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-process cache of the usernames and room names, which almost never change once created. Entries are bounded
+ * in number (W-TinyLFU eviction) and expire after a TTL. A node changing a name publishes the changed key on the
+ * invalidation channel, so the other nodes drop their copy without waiting for the TTL; the TTL only bounds the
+ * staleness of changes made behind the application's back.
+ *
+ * The online flags and the existence of rooms are not cached, they change with every connection and message.
+ * Hit and miss counts are exposed as the "cache.gets" metric, tagged with cache=usernames|room-names.
+ */
+@Component
+public class NameCache implements MessageListener, InitializingBean {
+    private static final Logger LOGGER = LoggerFactory.getLogger(NameCache.class);
+
+    public static final String INVALIDATION_CHANNEL = "CACHE_INVALIDATION";
+    private static final String USER_ENTRY = "user:";
+    private static final String ROOM_ENTRY = "room:";
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+
+    @Autowired
+    private RedisMessageListenerContainer redisContainer;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final Cache<Integer, String> usernames;
+    // Rooms without a name (private chats) are cached as well, as an empty value.
+    private final Cache<String, Optional<String>> roomNames;
+
+    @Autowired
+    public NameCache(@Value("${chat.cache.max-size:10000}") long maxSize,
+                     @Value("${chat.cache.ttl-seconds:600}") long ttlSeconds) {
+        this.usernames = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+        this.roomNames = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        CaffeineCacheMetrics.monitor(meterRegistry, usernames, "usernames");
+        CaffeineCacheMetrics.monitor(meterRegistry, roomNames, "room-names");
+        redisContainer.addMessageListener(this, new ChannelTopic(INVALIDATION_CHANNEL));
+    }
+
+    public String getUsername(int userId) {
+        return usernames.getIfPresent(userId);
+    }
+
+    /**
+     * @return the cached usernames of the given users, users which are not cached are left out
+     */
+    public Map<Integer, String> getUsernames(Collection<Integer> userIds) {
+        return usernames.getAllPresent(userIds);
+    }
+
+    public void putUsername(int userId, String username) {
+        usernames.put(userId, username);
+    }
+
+    public void putUsernames(Map<Integer, String> values) {
+        usernames.putAll(values);
+    }
+
+    /**
+     * @return the cached names of the given rooms, rooms which are not cached are left out and rooms without a
+     * name are mapped to an empty value
+     */
+    public Map<String, Optional<String>> getRoomNames(Collection<String> roomIds) {
+        return roomNames.getAllPresent(roomIds);
+    }
+
+    /**
+     * @param name name of the room, null for a room without a name
+     */
+    public void putRoomName(String roomId, String name) {
+        roomNames.put(roomId, Optional.ofNullable(name));
+    }
+
+    /**
+     * Drop the cached username of the user on every node, to be called once it was changed in Redis.
+     */
+    public void invalidateUser(int userId) {
+        usernames.invalidate(userId);
+        publishInvalidation(USER_ENTRY + userId);
+    }
+
+    /**
+     * Drop the cached name of the room on every node, to be called once it was changed in Redis.
+     */
+    public void invalidateRoom(String roomId) {
+        roomNames.invalidate(roomId);
+        publishInvalidation(ROOM_ENTRY + roomId);
+    }
+
+    private void publishInvalidation(String entry) {
+        redisTemplate.convertAndSend(INVALIDATION_CHANNEL, entry);
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String entry = new String(message.getBody(), StandardCharsets.UTF_8);
+        if (entry.startsWith(USER_ENTRY)) {
+            try {
+                usernames.invalidate(Integer.parseInt(entry.substring(USER_ENTRY.length())));
+            } catch (NumberFormatException e) {
+                LOGGER.warn("Ignoring malformed cache invalidation: {}", entry);
+            }
+        } else if (entry.startsWith(ROOM_ENTRY)) {
+            roomNames.invalidate(entry.substring(ROOM_ENTRY.length()));
+        } else {
+            LOGGER.warn("Ignoring malformed cache invalidation: {}", entry);
+        }
+    }
+}
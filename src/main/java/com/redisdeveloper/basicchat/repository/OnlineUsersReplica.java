@@ -0,0 +1,173 @@
+package com.redisdeveloper.basicchat.repository;
+
+import com.redisdeveloper.basicchat.codec.JsonCodec;
+import com.redisdeveloper.basicchat.model.MessageType;
+import com.redisdeveloper.basicchat.model.PubSubMessage;
+import com.redisdeveloper.basicchat.model.User;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Copy of the online users (see {@link PresenceStore}) kept by each node, so the online flags are read without a
+ * round trip. It follows the "user.connected" and "user.disconnected" events of all nodes, and is replaced by a
+ * snapshot periodically, which fixes the changes not announced by an event (e.g. senders marked online by a
+ * message, or events missed while the pub/sub connection was down).
+ */
+@Component
+public class OnlineUsersReplica implements MessageListener, InitializingBean {
+    private static final Logger LOGGER = LoggerFactory.getLogger(OnlineUsersReplica.class);
+
+    @Autowired
+    private PresenceStore presenceStore;
+
+    @Autowired
+    private RedisMessageListenerContainer redisContainer;
+
+    @Autowired
+    private ChannelTopic topic;
+
+    @Autowired
+    private JsonCodec jsonCodec;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${chat.presence.max-user-id:1000000}")
+    private int maxUserId;
+
+    // User ids are small sequential integers, so a bit per id is the most compact set. The senders of the messages
+    // come from the clients though, higher ids are kept apart so a forged one can't grow the bitmap.
+    private final BitSet onlineUsers = new BitSet();
+    private final Set<Integer> sparseOnlineUsers = new HashSet<>();
+    // Changes applied while a snapshot is read, they are applied again on top of it. Null when no snapshot is read.
+    private Map<Integer, Boolean> changesWhileReconciling;
+
+    @Override
+    public void afterPropertiesSet() {
+        Gauge.builder("chat.presence.online", this, OnlineUsersReplica::getOnlineCount)
+                .description("Online users according to the presence replica of this node")
+                .register(meterRegistry);
+        redisContainer.addMessageListener(this, topic);
+        reconcile();
+    }
+
+    public synchronized boolean isOnline(int userId) {
+        if (userId > maxUserId) {
+            return sparseOnlineUsers.contains(userId);
+        }
+        return userId >= 0 && onlineUsers.get(userId);
+    }
+
+    public synchronized Set<Integer> getOnlineIds() {
+        Set<Integer> ids = new LinkedHashSet<>();
+        for (int id = onlineUsers.nextSetBit(0); id >= 0; id = onlineUsers.nextSetBit(id + 1)) {
+            ids.add(id);
+        }
+        ids.addAll(new TreeSet<>(sparseOnlineUsers));
+        return ids;
+    }
+
+    public synchronized int getOnlineCount() {
+        return onlineUsers.cardinality() + sparseOnlineUsers.size();
+    }
+
+    public synchronized void markOnline(int userId) {
+        apply(userId, true);
+    }
+
+    public synchronized void markOffline(int userId) {
+        apply(userId, false);
+    }
+
+    private void apply(int userId, boolean online) {
+        if (userId < 0) {
+            return;
+        }
+        set(onlineUsers, sparseOnlineUsers, userId, online);
+        if (changesWhileReconciling != null) {
+            changesWhileReconciling.put(userId, online);
+        }
+    }
+
+    private void set(BitSet users, Set<Integer> sparseUsers, int userId, boolean online) {
+        if (userId > maxUserId) {
+            if (online) {
+                sparseUsers.add(userId);
+            } else {
+                sparseUsers.remove(userId);
+            }
+        } else {
+            users.set(userId, online);
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        PubSubMessage<User> event = jsonCodec.readUserEvent(new String(message.getBody(), StandardCharsets.UTF_8));
+        if (event == null || event.getData() == null) {
+            return;
+        }
+        if (MessageType.USER_CONNECTED.value().equals(event.getType())) {
+            markOnline(event.getData().getId());
+        } else {
+            markOffline(event.getData().getId());
+        }
+    }
+
+    /**
+     * Replace the replica by the online users stored in Redis. The snapshot may predate the events applied while
+     * it was read, so they are applied again on top of it.
+     */
+    @Scheduled(fixedDelayString = "${chat.presence.reconcile-interval-millis:30000}",
+            initialDelayString = "${chat.presence.reconcile-interval-millis:30000}")
+    public void reconcile() {
+        synchronized (this) {
+            changesWhileReconciling = new HashMap<>();
+        }
+        try {
+            BitSet snapshot = new BitSet();
+            Set<Integer> sparseSnapshot = new HashSet<>();
+            for (int userId : presenceStore.getOnlineIds()) {
+                if (userId >= 0) {
+                    set(snapshot, sparseSnapshot, userId, true);
+                }
+            }
+            synchronized (this) {
+                onlineUsers.clear();
+                onlineUsers.or(snapshot);
+                sparseOnlineUsers.clear();
+                sparseOnlineUsers.addAll(sparseSnapshot);
+                for (Map.Entry<Integer, Boolean> change : changesWhileReconciling.entrySet()) {
+                    set(onlineUsers, sparseOnlineUsers, change.getKey(), change.getValue());
+                }
+                if (LOGGER.isDebugEnabled() && !changesWhileReconciling.isEmpty()) {
+                    LOGGER.debug("Applied {} presence changes on top of the snapshot", changesWhileReconciling.size());
+                }
+            }
+        } finally {
+            synchronized (this) {
+                changesWhileReconciling = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.redisdeveloper.basicchat.repository;
+
+import org.springframework.data.redis.core.script.RedisScript;
+
+/**
+ * Storage of the ids of the online users. The backend is picked with the "chat.presence.backend" property:
+ * "set" (default) keeps a set of decimal ids, "bitmap" a bitmap with the bit of every online user id set, about
+ * one bit per registered user since the ids are sequential.
+ */
+public interface PresenceStore {
+
+    /**
+     * Key holding the online users.
+     */
+    String getKey();
+
+    void markOnline(int userId);
+
+    void markOffline(int userId);
+
+    /**
+     * Read all online users in one round trip.
+     *
+     * @return the ids of the online users, in ascending order for the bitmap
+     */
+    int[] getOnlineIds();
+
+    long getOnlineCount();
+
+    /**
+     * Load a script which updates the online users, it's run with the online_add, online_remove, online_count and
+     * online_members Lua functions of the backend.
+     */
+    <T> RedisScript<T> loadScript(String path, Class<T> resultType);
+}
@@ -1,58 +1,209 @@
 package com.redisdeveloper.basicchat.repository;
 
-import com.google.gson.Gson;
+import com.redisdeveloper.basicchat.config.PayloadLogSampler;
 import com.redisdeveloper.basicchat.model.Message;
+import com.redisdeveloper.basicchat.model.StoredMessagePage;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Repository;
 
-import java.util.Set;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
 
 @Repository
-public class RoomsRepository {
+public class RoomsRepository implements InitializingBean {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(RoomsRepository.class);
 
     @Autowired
     private StringRedisTemplate redisTemplate;
 
+    @Autowired
+    private MessageStore messageStore;
+
+    @Autowired
+    private MessageArchive messageArchive;
+
+    @Autowired
+    private MessageWriteBehind messageWriteBehind;
+
+    @Autowired
+    private NameCache nameCache;
+
+    @Autowired
+    private OnlineUsersReplica onlineUsersReplica;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private PayloadLogSampler payloadLogSampler;
+
+    private Timer ingestTimer;
+
     private static final String USER_ROOMS_KEY = "user:%d:rooms";
     private static final String ROOM_NAME_KEY = "room:%s:name";
-    public static final String ROOM_KEY = "room:%s";
+
+    @Override
+    public void afterPropertiesSet() {
+        // The count gives the ingest rate of the node.
+        ingestTimer = Timer.builder("chat.messages.ingest")
+                .description("Messages stored and published by this node, and the time it took")
+                .register(meterRegistry);
+    }
 
     public Set<String> getUserRoomIds(int userId){
         String userRoomsKey = String.format(USER_ROOMS_KEY, userId);
         Set<String> roomIds = redisTemplate.opsForSet().members(userRoomsKey);
-        LOGGER.debug("Received roomIds by userId: "+userId);
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Received roomIds by userId: {}", userId);
+        }
         return roomIds;
     }
 
+    /**
+     * Add the private room of two users to the rooms of both, in one round trip.
+     *
+     * @return the id of the room, built from the ids of the users
+     */
+    public String createPrivateRoom(int userId1, int userId2){
+        String roomId = Math.min(userId1, userId2) + ":" + Math.max(userId1, userId2);
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+            stringConnection.sAdd(String.format(USER_ROOMS_KEY, userId1), roomId);
+            stringConnection.sAdd(String.format(USER_ROOMS_KEY, userId2), roomId);
+            return null;
+        });
+        LOGGER.debug("Created private room {}", roomId);
+        return roomId;
+    }
+
     public boolean isRoomExists(String roomId){
-        return redisTemplate.hasKey(String.format(ROOM_KEY, roomId));
+        return redisTemplate.hasKey(messageStore.getRoomKey(roomId));
     }
 
     public String getRoomNameById(String roomId){
+        Optional<String> cached = nameCache.getRoomNames(Collections.singleton(roomId)).get(roomId);
+        if (cached != null) {
+            return cached.orElse(null);
+        }
         String roomNameKey = String.format(ROOM_NAME_KEY, roomId);
-        return redisTemplate.opsForValue().get(roomNameKey);
+        String name = redisTemplate.opsForValue().get(roomNameKey);
+        nameCache.putRoomName(roomId, name);
+        return name;
+    }
+
+    /**
+     * Resolve the names of several rooms in a single pipelined round trip. Rooms which don't exist are left out,
+     * rooms without a name (private chats) are mapped to null. The order of the given ids is kept.
+     * The existence is always checked in Redis, names are only read for the rooms which are not cached.
+     */
+    public Map<String, String> getExistingRoomNames(Collection<String> roomIds){
+        List<String> ids = new ArrayList<>(roomIds);
+        Map<String, Optional<String>> cached = nameCache.getRoomNames(ids);
+        List<Object> results = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+            for (String roomId : ids) {
+                stringConnection.exists(messageStore.getRoomKey(roomId));
+                if (!cached.containsKey(roomId)) {
+                    stringConnection.get(String.format(ROOM_NAME_KEY, roomId));
+                }
+            }
+            return null;
+        });
+        Map<String, String> roomNames = new LinkedHashMap<>();
+        int index = 0;
+        for (String roomId : ids) {
+            boolean exists = Boolean.TRUE.equals(results.get(index++));
+            String name;
+            if (cached.containsKey(roomId)) {
+                name = cached.get(roomId).orElse(null);
+            } else {
+                name = (String) results.get(index++);
+                nameCache.putRoomName(roomId, name);
+            }
+            if (exists) {
+                roomNames.put(roomId, name);
+            }
+        }
+        return roomNames;
+    }
+
+    /**
+     * Pages past the messages kept in Redis continue into the archive, if it's enabled.
+     */
+    public List<byte[]> getMessages(String roomId, int offset, int size){
+        List<byte[]> messages = messageStore.getMessages(roomId, offset, size);
+        if (!messageArchive.isEnabled()) {
+            return messages;
+        }
+        long stored = messageStore.countMessages(roomId);
+        if (offset + size <= stored) {
+            return messages;
+        }
+        List<byte[]> page = new ArrayList<>(messages);
+        long archiveOffset = Math.max(0, offset - stored);
+        int archiveSize = (int) Math.min(size, offset + size - stored);
+        page.addAll(messageArchive.getMessages(roomId, archiveOffset, archiveSize));
+        return page;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the cursor is not valid for the configured message store
+     */
+    public StoredMessagePage getMessagesBefore(String roomId, String before, int limit){
+        return messageStore.getMessagesBefore(roomId, before, limit);
+    }
+
+    public Map<String, List<byte[]>> getMessagesSince(Collection<String> roomIds, long timestampMillis, int limit){
+        return messageStore.getMessagesSince(roomIds, timestampMillis, limit);
+    }
+
+    public void sendMessageToRedis(String topic, byte[] serializedMessage){
+        if (LOGGER.isDebugEnabled() && payloadLogSampler.sample()) {
+            LOGGER.debug("Saving message to Redis: topic:{}, message:{}", topic,
+                    new String(serializedMessage, StandardCharsets.UTF_8));
+        }
+        byte[] channel = topic.getBytes(StandardCharsets.UTF_8);
+        redisTemplate.execute((RedisCallback<Long>) connection -> connection.publish(channel, serializedMessage));
     }
 
-    public Set<String> getMessages(String roomId, int offset, int size){
-        String roomNameKey = String.format(ROOM_KEY, roomId);
-        Set<String> messages = redisTemplate.opsForZSet().reverseRange(roomNameKey, offset, offset + size);
-        LOGGER.debug(String.format("Received messages by roomId:%s, offset:%s, size:%s ", roomId, offset, size));
-        return messages;
+    /**
+     * Store a message, mark its sender as online and deliver it to the other nodes in one round trip.
+     * The sender is almost always online already, the write to "online_users" is skipped then.
+     * With the write-behind enabled, the round trip is shared with the messages sent meanwhile.
+     */
+    public String ingestMessage(Message message){
+        int senderId = parseSenderId(message);
+        boolean markSenderOnline = senderId >= 0 && !onlineUsersReplica.isOnline(senderId);
+        long start = System.nanoTime();
+        String position = messageWriteBehind.isEnabled()
+                ? messageWriteBehind.ingest(message, markSenderOnline)
+                : messageStore.ingestMessage(message, markSenderOnline);
+        ingestTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        if (markSenderOnline) {
+            onlineUsersReplica.markOnline(senderId);
+        }
+        return position;
     }
 
-    public void sendMessageToRedis(String topic, String serializedMessage){
-        LOGGER.debug(String.format("Saving message to Redis: topic:%s, message:%s ", topic, serializedMessage));
-        redisTemplate.convertAndSend(topic, serializedMessage);
+    private int parseSenderId(Message message){
+        try {
+            return Integer.parseInt(message.getFrom());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
     }
 
     public void saveMessage(Message message){
-        Gson gson = new Gson();
-        String roomKey = String.format(ROOM_KEY, message.getRoomId());
-        redisTemplate.opsForZSet().add(roomKey, gson.toJson(message), message.getDate());
+        messageStore.saveMessage(message);
     }
 }
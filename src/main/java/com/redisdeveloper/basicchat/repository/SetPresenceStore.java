@@ -0,0 +1,73 @@
+package com.redisdeveloper.basicchat.repository;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Repository;
+
+import java.util.Arrays;
+import java.util.Set;
+
+@Repository
+@ConditionalOnProperty(name = "chat.presence.backend", havingValue = "set", matchIfMissing = true)
+public class SetPresenceStore implements PresenceStore {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SetPresenceStore.class);
+
+    public static final String ONLINE_USERS_KEY = "online_users";
+    private static final String FUNCTIONS = "scripts/presence/set.lua";
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+
+    @Override
+    public String getKey() {
+        return ONLINE_USERS_KEY;
+    }
+
+    @Override
+    public void markOnline(int userId) {
+        redisTemplate.opsForSet().add(ONLINE_USERS_KEY, String.valueOf(userId));
+    }
+
+    @Override
+    public void markOffline(int userId) {
+        redisTemplate.opsForSet().remove(ONLINE_USERS_KEY, String.valueOf(userId));
+    }
+
+    /**
+     * Malformed members are left out.
+     */
+    @Override
+    public int[] getOnlineIds() {
+        Set<String> members = redisTemplate.opsForSet().members(ONLINE_USERS_KEY);
+        if (members == null) {
+            return new int[0];
+        }
+        int[] ids = new int[members.size()];
+        int count = 0;
+        for (String member : members) {
+            try {
+                ids[count] = Integer.parseInt(member);
+                count++;
+            } catch (NumberFormatException e) {
+                LOGGER.warn("Ignoring malformed online user id: {}", member);
+            }
+        }
+        return count == ids.length ? ids : Arrays.copyOf(ids, count);
+    }
+
+    @Override
+    public long getOnlineCount() {
+        Long count = redisTemplate.opsForSet().size(ONLINE_USERS_KEY);
+        return count != null ? count : 0;
+    }
+
+    @Override
+    public <T> RedisScript<T> loadScript(String path, Class<T> resultType) {
+        return LuaScripts.withFunctions(FUNCTIONS, path, resultType);
+    }
+}
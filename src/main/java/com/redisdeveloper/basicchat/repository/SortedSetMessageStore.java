@@ -0,0 +1,303 @@
+package com.redisdeveloper.basicchat.repository;
+
+import com.redisdeveloper.basicchat.codec.JsonCodec;
+import com.redisdeveloper.basicchat.codec.MessageCodec;
+import com.redisdeveloper.basicchat.model.Message;
+import com.redisdeveloper.basicchat.model.MessageCursor;
+import com.redisdeveloper.basicchat.model.MessageId;
+import com.redisdeveloper.basicchat.model.MessageType;
+import com.redisdeveloper.basicchat.model.StoredMessage;
+import com.redisdeveloper.basicchat.model.StoredMessagePage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.connection.DataType;
+import org.springframework.data.redis.connection.RedisZSetCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.serializer.GenericToStringSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.stereotype.Repository;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Messages of a room are the members of the "room:{id}" sorted set, scored by their id (see {@link MessageId}),
+ * or by their date in seconds for messages stored before ids were assigned. New messages are published on the
+ * channel of the room ("MESSAGES:room:{id}") by the same script which stores them.
+ */
+@Repository
+@ConditionalOnProperty(name = "chat.storage", havingValue = "zset", matchIfMissing = true)
+public class SortedSetMessageStore implements MessageStore, InitializingBean {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SortedSetMessageStore.class);
+
+    public static final String ROOM_KEY = "room:%s";
+    private static final String ROOM_KEY_PREFIX = "room:";
+    // Channel of the messages of a room, after the name of the topic of the other events.
+    private static final String ROOM_CHANNEL = "%s:room:%s";
+
+    private static final int INGEST_ARGS = 5;
+
+    private static final RedisSerializer<Long> LONG_RESULT_SERIALIZER = new GenericToStringSerializer<>(Long.class);
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+
+    @Autowired
+    private JsonCodec jsonCodec;
+
+    @Autowired
+    private MessageCodec messageCodec;
+
+    @Autowired
+    private ChannelTopic topic;
+
+    @Autowired
+    private PresenceStore presenceStore;
+
+    // Marks the sender online, so it's run with the functions of the presence backend.
+    private RedisScript<Long> ingestMessageScript;
+    @SuppressWarnings("rawtypes")
+    private RedisScript<List> ingestMessagesScript;
+
+    @Override
+    public void afterPropertiesSet() {
+        ingestMessageScript = presenceStore.loadScript("scripts/ingest_message.lua", Long.class);
+        ingestMessagesScript = presenceStore.loadScript("scripts/ingest_messages.lua", List.class);
+    }
+
+    @Override
+    public String getRoomKey(String roomId) {
+        return String.format(ROOM_KEY, roomId);
+    }
+
+    /**
+     * Messages are published on a channel per room, so a node only receives the messages of the rooms of its
+     * connected users.
+     */
+    public String getRoomChannel(String roomId) {
+        return String.format(ROOM_CHANNEL, topic.getTopic(), roomId);
+    }
+
+    /**
+     * Store a message, mark its sender as online and publish the pub/sub event in one atomic round trip.
+     * The script is sent once, afterwards it's invoked by its sha with EVALSHA.
+     *
+     * @return the score the message was stored with
+     */
+    @Override
+    public String ingestMessage(Message message, boolean markSenderOnline) {
+        List<String> keys = Arrays.asList(presenceStore.getKey(), getRoomKey(message.getRoomId()));
+        Long score = redisTemplate.execute(ingestMessageScript, RedisSerializer.byteArray(), LONG_RESULT_SERIALIZER,
+                keys, (Object[]) getIngestArgs(message, markSenderOnline));
+        return String.valueOf(Objects.requireNonNull(score));
+    }
+
+    @Override
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public List<String> ingestMessages(List<Message> messages, List<Boolean> markSendersOnline) {
+        List<String> keys = new ArrayList<>(messages.size() + 1);
+        keys.add(presenceStore.getKey());
+        Object[] args = new Object[messages.size() * INGEST_ARGS];
+        for (int i = 0; i < messages.size(); i++) {
+            Message message = messages.get(i);
+            keys.add(getRoomKey(message.getRoomId()));
+            System.arraycopy(getIngestArgs(message, markSendersOnline.get(i)), 0, args, i * INGEST_ARGS, INGEST_ARGS);
+        }
+        List<String> scores = redisTemplate.execute(ingestMessagesScript, RedisSerializer.byteArray(),
+                (RedisSerializer) RedisSerializer.string(), keys, args);
+        return Objects.requireNonNull(scores);
+    }
+
+    // Arguments of a message in the ingest scripts, see ingest_message.lua.
+    private byte[][] getIngestArgs(Message message, boolean markSenderOnline) {
+        return new byte[][]{
+                markSenderOnline ? message.getFrom().getBytes(StandardCharsets.UTF_8) : new byte[0],
+                String.valueOf(getScore(message)).getBytes(StandardCharsets.UTF_8),
+                messageCodec.encode(message),
+                getRoomChannel(message.getRoomId()).getBytes(StandardCharsets.UTF_8),
+                jsonCodec.writeMessageEvent(MessageType.MESSAGE.value(), message)};
+    }
+
+    @Override
+    public void saveMessage(Message message) {
+        byte[] roomKey = getRoomKey(message.getRoomId()).getBytes(StandardCharsets.UTF_8);
+        byte[] serializedMessage = messageCodec.encode(message);
+        redisTemplate.execute((RedisCallback<Boolean>) connection ->
+                connection.zAdd(roomKey, getScore(message), serializedMessage));
+    }
+
+    private static long getScore(Message message) {
+        return message.getId() != null ? message.getId() : message.getDate();
+    }
+
+    @Override
+    public List<byte[]> getMessages(String roomId, int offset, int size) {
+        if (offset < 0 || size <= 0) {
+            return Collections.emptyList();
+        }
+        byte[] roomKey = getRoomKey(roomId).getBytes(StandardCharsets.UTF_8);
+        // The end of ZREVRANGE is inclusive.
+        Set<byte[]> messages = redisTemplate.execute(
+                (RedisCallback<Set<byte[]>>) connection -> connection.zRevRange(roomKey, offset, offset + size - 1));
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Received messages by roomId:{}, offset:{}, size:{}", roomId, offset, size);
+        }
+        return toJson(messages, roomId);
+    }
+
+    /**
+     * Read a page of the history of a room, newest first, with ZREVRANGEBYSCORE ... LIMIT. Unlike an offset
+     * based page, the cost doesn't grow with the depth of the page and messages arriving meanwhile don't
+     * shift the page.
+     */
+    @Override
+    public StoredMessagePage getMessagesBefore(String roomId, String before, int limit) {
+        MessageCursor cursor = before == null ? null : MessageCursor.decode(before);
+        double max = cursor == null ? Double.POSITIVE_INFINITY : cursor.getScore();
+        long skip = cursor == null ? 0 : cursor.getSkip();
+        byte[] roomKey = getRoomKey(roomId).getBytes(StandardCharsets.UTF_8);
+        Set<RedisZSetCommands.Tuple> tuples = redisTemplate.execute((RedisCallback<Set<RedisZSetCommands.Tuple>>)
+                connection -> connection.zRevRangeByScoreWithScores(roomKey, Double.NEGATIVE_INFINITY, max, skip,
+                        limit));
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Received messages by roomId:{}, before:{}, limit:{}", roomId, max, limit);
+        }
+        List<RedisZSetCommands.Tuple> values = tuples == null ? Collections.emptyList() : new ArrayList<>(tuples);
+
+        List<byte[]> messages = new ArrayList<>(values.size());
+        for (RedisZSetCommands.Tuple value : values) {
+            byte[] json = messageCodec.toJson(value.getValue(), roomId);
+            if (json != null) {
+                messages.add(json);
+            }
+        }
+        String next = null;
+        if (values.size() == limit) {
+            double lastScore = values.get(values.size() - 1).getScore();
+            int countOfLastScore = 0;
+            for (RedisZSetCommands.Tuple value : values) {
+                if (value.getScore() == lastScore) {
+                    countOfLastScore++;
+                }
+            }
+            next = MessageCursor.after(cursor, lastScore, countOfLastScore).encode();
+        }
+        return new StoredMessagePage(messages, next);
+    }
+
+    /**
+     * Messages of the second of the given time are returned as well, as the last event id of a client may have
+     * been sent by a node right before a message assigned an id slightly earlier by another node was delivered.
+     * Messages without an id are scored by their date and sort before all the others, so they are read first.
+     * The two ranges of every room are read in a single pipeline.
+     */
+    @Override
+    public Map<String, List<byte[]>> getMessagesSince(Collection<String> roomIds, long timestampMillis, int limit) {
+        List<String> ids = new ArrayList<>(roomIds);
+        long second = timestampMillis / 1000;
+        boolean readDated = second <= MessageId.MAX_DATE_SCORE;
+        double minId = MessageId.firstIdAt(second * 1000);
+        List<Object> results = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String roomId : ids) {
+                byte[] roomKey = getRoomKey(roomId).getBytes(StandardCharsets.UTF_8);
+                if (readDated) {
+                    connection.zRangeByScore(roomKey, second, MessageId.MAX_DATE_SCORE, 0, limit);
+                }
+                connection.zRangeByScore(roomKey, minId, Double.POSITIVE_INFINITY, 0, limit);
+            }
+            return null;
+        }, RedisSerializer.byteArray());
+        Map<String, List<byte[]>> messages = new LinkedHashMap<>();
+        int index = 0;
+        for (String roomId : ids) {
+            List<byte[]> stored = new ArrayList<>();
+            if (readDated) {
+                addAll(stored, results.get(index++), limit);
+            }
+            // Read without knowing how many dated messages there are, so it's cut to the remaining limit here.
+            addAll(stored, results.get(index++), limit);
+            messages.put(roomId, toJson(stored, roomId));
+        }
+        return messages;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void addAll(List<byte[]> messages, Object range, int limit) {
+        if (range == null) {
+            return;
+        }
+        for (byte[] message : (Collection<byte[]>) range) {
+            if (messages.size() >= limit) {
+                return;
+            }
+            messages.add(message);
+        }
+    }
+
+    @Override
+    public List<String> findRoomIds() {
+        List<String> roomIds = new ArrayList<>();
+        for (String key : KeyScan.findKeys(redisTemplate, ROOM_KEY_PREFIX + "*", DataType.ZSET)) {
+            roomIds.add(key.substring(ROOM_KEY_PREFIX.length()));
+        }
+        return roomIds;
+    }
+
+    @Override
+    public long countMessages(String roomId) {
+        Long count = redisTemplate.opsForZSet().zCard(getRoomKey(roomId));
+        return count == null ? 0 : count;
+    }
+
+    @Override
+    public List<StoredMessage> getOldestMessages(String roomId, int limit) {
+        if (limit <= 0) {
+            return Collections.emptyList();
+        }
+        byte[] roomKey = getRoomKey(roomId).getBytes(StandardCharsets.UTF_8);
+        Set<RedisZSetCommands.Tuple> tuples = redisTemplate.execute((RedisCallback<Set<RedisZSetCommands.Tuple>>)
+                connection -> connection.zRangeWithScores(roomKey, 0, limit - 1));
+        if (tuples == null) {
+            return Collections.emptyList();
+        }
+        List<StoredMessage> messages = new ArrayList<>(tuples.size());
+        for (RedisZSetCommands.Tuple tuple : tuples) {
+            messages.add(new StoredMessage(null, MessageId.getDate(tuple.getScore()), tuple.getValue()));
+        }
+        return messages;
+    }
+
+    @Override
+    public void removeMessages(String roomId, List<StoredMessage> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        byte[] roomKey = getRoomKey(roomId).getBytes(StandardCharsets.UTF_8);
+        byte[][] members = new byte[messages.size()][];
+        for (int i = 0; i < members.length; i++) {
+            members[i] = messages.get(i).getValue();
+        }
+        redisTemplate.execute((RedisCallback<Long>) connection -> connection.zRem(roomKey, members));
+    }
+
+    private List<byte[]> toJson(Collection<byte[]> stored, String roomId) {
+        if (stored == null) {
+            return Collections.emptyList();
+        }
+        List<byte[]> messages = new ArrayList<>(stored.size());
+        for (byte[] value : stored) {
+            byte[] json = messageCodec.toJson(value, roomId);
+            if (json != null) {
+                messages.add(json);
+            }
+        }
+        return messages;
+    }
+}
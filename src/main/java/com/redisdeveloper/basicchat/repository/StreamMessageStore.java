@@ -0,0 +1,358 @@
+package com.redisdeveloper.basicchat.repository;
+
+import com.redisdeveloper.basicchat.codec.MessageCodec;
+import com.redisdeveloper.basicchat.model.Message;
+import com.redisdeveloper.basicchat.model.StoredMessage;
+import com.redisdeveloper.basicchat.model.StoredMessagePage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.DataType;
+import org.springframework.data.redis.connection.RedisStreamCommands;
+import org.springframework.data.redis.connection.stream.ByteRecord;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.stereotype.Repository;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * Messages of a room are the entries of the "room:{id}:stream" stream, in the order they were received.
+ * Unlike sorted set members, two identical messages are two entries, and the stream is trimmed to about
+ * "chat.storage.stream.max-length" entries on every append.
+ *
+ * Nothing is published, new entries are delivered by {@link com.redisdeveloper.basicchat.service.StreamRoomReader},
+ * which reads the streams of the rooms of the local users with XREAD.
+ */
+@Repository
+@ConditionalOnProperty(name = "chat.storage", havingValue = "stream")
+public class StreamMessageStore implements MessageStore, InitializingBean {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(StreamMessageStore.class);
+
+    public static final String ROOM_STREAM_KEY = "room:%s:stream";
+    public static final byte[] MESSAGE_FIELD = "message".getBytes(StandardCharsets.UTF_8);
+
+    private static final String ROOM_STREAM_KEY_PATTERN = "room:*:stream";
+    private static final String ROOM_KEY_PREFIX = "room:";
+    private static final String ROOM_STREAM_KEY_SUFFIX = ":stream";
+    private static final String NEWEST_ID = "+";
+    private static final String OLDEST_ID = "-";
+    private static final Pattern ENTRY_ID = Pattern.compile("\\d+-\\d+");
+
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> REVERSE_RANGE_SCRIPT =
+            RedisScript.of(new ClassPathResource("scripts/stream_reverse_range.lua"), List.class);
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> RANGE_SCRIPT =
+            RedisScript.of(new ClassPathResource("scripts/stream_range.lua"), List.class);
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> RANGE_ROOMS_SCRIPT =
+            RedisScript.of(new ClassPathResource("scripts/stream_range_rooms.lua"), List.class);
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+
+    @Autowired
+    private MessageCodec messageCodec;
+
+    @Autowired
+    private PresenceStore presenceStore;
+
+    @Value("${chat.storage.stream.max-length:10000}")
+    private long maxLength;
+
+    // Marks the sender online, so it's run with the functions of the presence backend.
+    private RedisScript<String> ingestMessageScript;
+    @SuppressWarnings("rawtypes")
+    private RedisScript<List> ingestMessagesScript;
+
+    @Override
+    public void afterPropertiesSet() {
+        ingestMessageScript = presenceStore.loadScript("scripts/ingest_message_stream.lua", String.class);
+        ingestMessagesScript = presenceStore.loadScript("scripts/ingest_messages_stream.lua", List.class);
+    }
+
+    @Override
+    public String getRoomKey(String roomId) {
+        return String.format(ROOM_STREAM_KEY, roomId);
+    }
+
+    public long getMaxLength() {
+        return maxLength;
+    }
+
+    @Override
+    public String ingestMessage(Message message, boolean markSenderOnline) {
+        List<String> keys = Arrays.asList(presenceStore.getKey(), getRoomKey(message.getRoomId()));
+        String id = redisTemplate.execute(ingestMessageScript, RedisSerializer.byteArray(), RedisSerializer.string(),
+                keys,
+                markSenderOnline ? message.getFrom().getBytes(StandardCharsets.UTF_8) : new byte[0],
+                String.valueOf(maxLength).getBytes(StandardCharsets.UTF_8),
+                messageCodec.encode(message));
+        return Objects.requireNonNull(id);
+    }
+
+    @Override
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public List<String> ingestMessages(List<Message> messages, List<Boolean> markSendersOnline) {
+        List<String> keys = new ArrayList<>(messages.size() + 1);
+        keys.add(presenceStore.getKey());
+        Object[] args = new Object[1 + messages.size() * 2];
+        args[0] = String.valueOf(maxLength).getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < messages.size(); i++) {
+            Message message = messages.get(i);
+            keys.add(getRoomKey(message.getRoomId()));
+            args[1 + i * 2] = markSendersOnline.get(i)
+                    ? message.getFrom().getBytes(StandardCharsets.UTF_8)
+                    : new byte[0];
+            args[2 + i * 2] = messageCodec.encode(message);
+        }
+        List<String> ids = redisTemplate.execute(ingestMessagesScript, RedisSerializer.byteArray(),
+                (RedisSerializer) RedisSerializer.string(), keys, args);
+        return Objects.requireNonNull(ids);
+    }
+
+    @Override
+    public void saveMessage(Message message) {
+        byte[] roomKey = getRoomKey(message.getRoomId()).getBytes(StandardCharsets.UTF_8);
+        ByteRecord record = StreamRecords
+                .rawBytes(Collections.singletonMap(MESSAGE_FIELD, messageCodec.encode(message)))
+                .withStreamKey(roomKey);
+        redisTemplate.execute((RedisCallback<Object>) connection ->
+                connection.xAdd(record, RedisStreamCommands.XAddOptions.maxlen(maxLength)));
+    }
+
+    /**
+     * XREVRANGE has no offset, so the entries in front of the page are read as well. Use
+     * {@link #getMessagesBefore(String, String, int)} for deep pages.
+     */
+    @Override
+    public List<byte[]> getMessages(String roomId, int offset, int size) {
+        if (offset < 0 || size <= 0) {
+            return Collections.emptyList();
+        }
+        List<StreamEntry> entries = reverseRange(roomId, NEWEST_ID, offset + size);
+        List<byte[]> messages = new ArrayList<>(size);
+        for (int i = offset; i < entries.size(); i++) {
+            byte[] message = entries.get(i).getJson(messageCodec, roomId);
+            if (message != null) {
+                messages.add(message);
+            }
+        }
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Received messages by roomId:{}, offset:{}, size:{}", roomId, offset, size);
+        }
+        return messages;
+    }
+
+    /**
+     * The cursor is the id of the last entry of the previous page. The page ends right before it, with an
+     * inclusive range ending at the preceding id, as exclusive ranges would need Redis 6.2.
+     */
+    @Override
+    public StoredMessagePage getMessagesBefore(String roomId, String before, int limit) {
+        String start = NEWEST_ID;
+        if (before != null) {
+            if (!ENTRY_ID.matcher(before).matches()) {
+                throw new IllegalArgumentException("Malformed cursor: " + before);
+            }
+            start = previousId(before);
+            if (start == null) {
+                return new StoredMessagePage(Collections.emptyList(), null);
+            }
+        }
+        List<StreamEntry> entries = reverseRange(roomId, start, limit);
+        List<byte[]> messages = new ArrayList<>(entries.size());
+        for (StreamEntry entry : entries) {
+            byte[] message = entry.getJson(messageCodec, roomId);
+            if (message != null) {
+                messages.add(message);
+            }
+        }
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Received messages by roomId:{}, before:{}, limit:{}", roomId, before, limit);
+        }
+        String next = entries.size() == limit ? entries.get(entries.size() - 1).id : null;
+        return new StoredMessagePage(messages, next);
+    }
+
+    /**
+     * Entry ids start with the time the entry was added, so the range starts right at the given time.
+     */
+    @Override
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    public Map<String, List<byte[]>> getMessagesSince(Collection<String> roomIds, long timestampMillis, int limit) {
+        Map<String, List<byte[]>> messages = new LinkedHashMap<>();
+        if (roomIds.isEmpty()) {
+            return messages;
+        }
+        List<String> ids = new ArrayList<>(roomIds);
+        List<String> keys = new ArrayList<>(ids.size());
+        for (String roomId : ids) {
+            keys.add(getRoomKey(roomId));
+        }
+        // The values of the nested reply are left as bytes.
+        RedisSerializer resultSerializer = RedisSerializer.byteArray();
+        List<?> result = redisTemplate.execute(RANGE_ROOMS_SCRIPT, RedisSerializer.byteArray(), resultSerializer, keys,
+                (timestampMillis + "-0").getBytes(StandardCharsets.UTF_8),
+                String.valueOf(limit).getBytes(StandardCharsets.UTF_8));
+        for (int i = 0; i < ids.size(); i++) {
+            String roomId = ids.get(i);
+            List<byte[]> roomMessages = new ArrayList<>();
+            for (StreamEntry entry : toEntries(result == null ? null : (List<?>) result.get(i))) {
+                byte[] message = entry.getJson(messageCodec, roomId);
+                if (message != null) {
+                    roomMessages.add(message);
+                }
+            }
+            messages.put(roomId, roomMessages);
+        }
+        return messages;
+    }
+
+    /**
+     * Id of the newest entry of the room, "0-0" if the room has no messages yet. Reading the room from there
+     * returns exactly the messages added afterwards.
+     */
+    public String getLastEntryId(String roomId) {
+        List<StreamEntry> entries = reverseRange(roomId, NEWEST_ID, 1);
+        return entries.isEmpty() ? "0-0" : entries.get(0).id;
+    }
+
+    @Override
+    public List<String> findRoomIds() {
+        List<String> roomIds = new ArrayList<>();
+        for (String key : KeyScan.findKeys(redisTemplate, ROOM_STREAM_KEY_PATTERN, DataType.STREAM)) {
+            roomIds.add(key.substring(ROOM_KEY_PREFIX.length(), key.length() - ROOM_STREAM_KEY_SUFFIX.length()));
+        }
+        return roomIds;
+    }
+
+    @Override
+    public long countMessages(String roomId) {
+        byte[] roomKey = getRoomKey(roomId).getBytes(StandardCharsets.UTF_8);
+        Long count = redisTemplate.execute((RedisCallback<Long>) connection -> connection.xLen(roomKey));
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * The date of an entry is the time it was added, its id.
+     */
+    @Override
+    public List<StoredMessage> getOldestMessages(String roomId, int limit) {
+        if (limit <= 0) {
+            return Collections.emptyList();
+        }
+        List<StreamEntry> entries = range(RANGE_SCRIPT, roomId, OLDEST_ID, limit);
+        List<StoredMessage> messages = new ArrayList<>(entries.size());
+        for (StreamEntry entry : entries) {
+            long millis = Long.parseLong(entry.id.substring(0, entry.id.indexOf('-')));
+            messages.add(new StoredMessage(entry.id, millis / 1000, entry.message));
+        }
+        return messages;
+    }
+
+    @Override
+    public void removeMessages(String roomId, List<StoredMessage> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        byte[] roomKey = getRoomKey(roomId).getBytes(StandardCharsets.UTF_8);
+        RecordId[] ids = new RecordId[messages.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = RecordId.of(messages.get(i).getId());
+        }
+        redisTemplate.execute((RedisCallback<Long>) connection -> connection.xDel(roomKey, ids));
+    }
+
+    /**
+     * The json of the message of a stream entry of the room, null if the entry has no (well-formed) message field.
+     */
+    public byte[] getMessage(ByteRecord record, String roomId) {
+        for (Map.Entry<byte[], byte[]> field : record.getValue().entrySet()) {
+            if (Arrays.equals(MESSAGE_FIELD, field.getKey())) {
+                return messageCodec.toJson(field.getValue(), roomId);
+            }
+        }
+        return null;
+    }
+
+    private List<StreamEntry> reverseRange(String roomId, String start, int count) {
+        return range(REVERSE_RANGE_SCRIPT, roomId, start, count);
+    }
+
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private List<StreamEntry> range(RedisScript<List> script, String roomId, String start, int count) {
+        // The values of the nested reply are left as bytes.
+        RedisSerializer resultSerializer = RedisSerializer.byteArray();
+        List<?> result = redisTemplate.execute(script, RedisSerializer.byteArray(), resultSerializer,
+                Collections.singletonList(getRoomKey(roomId)),
+                start.getBytes(StandardCharsets.UTF_8),
+                String.valueOf(count).getBytes(StandardCharsets.UTF_8));
+        return toEntries(result);
+    }
+
+    /**
+     * Entries of a reply of XRANGE or XREVRANGE.
+     */
+    private static List<StreamEntry> toEntries(List<?> result) {
+        if (result == null) {
+            return Collections.emptyList();
+        }
+        List<StreamEntry> entries = new ArrayList<>(result.size());
+        for (Object item : result) {
+            List<?> entry = (List<?>) item;
+            List<?> fields = (List<?>) entry.get(1);
+            byte[] message = null;
+            for (int i = 0; i + 1 < fields.size(); i += 2) {
+                if (Arrays.equals(MESSAGE_FIELD, (byte[]) fields.get(i))) {
+                    message = (byte[]) fields.get(i + 1);
+                }
+            }
+            entries.add(new StreamEntry(new String((byte[]) entry.get(0), StandardCharsets.UTF_8), message));
+        }
+        return entries;
+    }
+
+    /**
+     * The greatest id lower than the given one, null if there is no such id.
+     */
+    static String previousId(String id) {
+        int separator = id.indexOf('-');
+        long millis = Long.parseLong(id.substring(0, separator));
+        long sequence = Long.parseUnsignedLong(id.substring(separator + 1));
+        if (sequence != 0) {
+            return millis + "-" + Long.toUnsignedString(sequence - 1);
+        }
+        if (millis == 0) {
+            return null;
+        }
+        return (millis - 1) + "-" + Long.toUnsignedString(-1L);
+    }
+
+    private static class StreamEntry {
+        final String id;
+        // As stored, null if the entry has no message field.
+        final byte[] message;
+
+        StreamEntry(String id, byte[] message) {
+            this.id = id;
+            this.message = message;
+        }
+
+        byte[] getJson(MessageCodec messageCodec, String roomId) {
+            return message == null ? null : messageCodec.toJson(message, roomId);
+        }
+    }
+}
@@ -4,12 +4,12 @@ import com.redisdeveloper.basicchat.model.User;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Repository;
 
-import java.util.Objects;
-import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.*;
 
 @Repository
 public class UsersRepository {
@@ -18,31 +18,109 @@ public class UsersRepository {
     private static final String USERNAME_HASH_KEY = "username";
     private static final String USERNAME_KEY = "username:%s";
     private static final String USER_ID_KEY = "user:%s";
-    private static final String ONLINE_USERS_KEY = "online_users";
 
     @Autowired
     private StringRedisTemplate redisTemplate;
 
+    @Autowired
+    private NameCache nameCache;
+
+    @Autowired
+    private OnlineUsersReplica onlineUsersReplica;
+
     public User getUserById(int userId) {
-        String usernameKey = String.format(USER_ID_KEY, userId);
-        String username = (String) redisTemplate.opsForHash().get(usernameKey, USERNAME_HASH_KEY);
-        if (username == null){
-            LOGGER.error(String.format("User was not found by id:%s", userId));
-            return null;
+        String username = nameCache.getUsername(userId);
+        if (username == null) {
+            String usernameKey = String.format(USER_ID_KEY, userId);
+            username = (String) redisTemplate.opsForHash().get(usernameKey, USERNAME_HASH_KEY);
+            if (username == null){
+                LOGGER.error("User was not found by id:{}", userId);
+                return null;
+            }
+            nameCache.putUsername(userId, username);
         }
-        boolean isOnline = redisTemplate.opsForSet().isMember(ONLINE_USERS_KEY, String.valueOf(userId));
-        return new User(userId, username, isOnline);
+        return new User(userId, username, onlineUsersReplica.isOnline(userId));
     }
 
-    public Set<Integer> getOnlineUsersIds(){
-        Set<String> onlineIds = redisTemplate.opsForSet().members(ONLINE_USERS_KEY);
-        if (onlineIds == null){
-            LOGGER.info("No online users found");
+    /**
+     * Resolve several users: the usernames come from the cache or a single pipelined round trip, the online
+     * flags from the presence replica. Users which don't exist are left out.
+     */
+    public Map<Integer, User> getUsersByIds(Collection<Integer> userIds){
+        Map<Integer, User> users = new LinkedHashMap<>();
+        for (Map.Entry<Integer, String> username : getUsernames(userIds).entrySet()) {
+            int userId = username.getKey();
+            users.put(userId, new User(userId, username.getValue(), onlineUsersReplica.isOnline(userId)));
+        }
+        return users;
+    }
+
+    /**
+     * Resolve all online users: the ids come from the presence replica, the usernames from the cache or a single
+     * pipeline.
+     */
+    public Map<Integer, User> getOnlineUsers(){
+        Set<Integer> onlineIds = getOnlineUsersIds();
+        if (onlineIds.isEmpty()){
+            return Collections.emptyMap();
+        }
+        Map<Integer, User> users = new LinkedHashMap<>();
+        for (Map.Entry<Integer, String> username : getUsernames(onlineIds).entrySet()) {
+            users.put(username.getKey(), new User(username.getKey(), username.getValue(), true));
+        }
+        return users;
+    }
+
+    /**
+     * Resolve the usernames of several users from the cache, and of the remaining ones in a single pipelined
+     * round trip. Users which don't exist are left out of the result.
+     */
+    public Map<Integer, String> getUsernames(Collection<Integer> userIds){
+        Map<Integer, String> cached = nameCache.getUsernames(userIds);
+        List<Integer> missing = getMissingIds(userIds, cached);
+        if (missing.isEmpty()) {
+            return cached;
+        }
+        List<Object> results = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+            for (Integer userId : missing) {
+                stringConnection.hGet(String.format(USER_ID_KEY, userId), USERNAME_HASH_KEY);
+            }
             return null;
+        });
+        Map<Integer, String> loaded = collectUsernames(missing, results);
+        nameCache.putUsernames(loaded);
+
+        Map<Integer, String> usernames = new LinkedHashMap<>(cached);
+        usernames.putAll(loaded);
+        return usernames;
+    }
+
+    private List<Integer> getMissingIds(Collection<Integer> userIds, Map<Integer, String> cached){
+        List<Integer> missing = new ArrayList<>();
+        for (Integer userId : userIds) {
+            if (!cached.containsKey(userId)) {
+                missing.add(userId);
+            }
         }
-        return onlineIds.stream()
-                .map(Integer::parseInt)
-                .collect(Collectors.toSet());
+        return missing;
+    }
+
+    private Map<Integer, String> collectUsernames(List<Integer> ids, List<Object> results){
+        Map<Integer, String> usernames = new LinkedHashMap<>();
+        for (int i = 0; i < ids.size(); i++) {
+            String username = (String) results.get(i);
+            if (username == null){
+                LOGGER.error("User was not found by id:{}", ids.get(i));
+                continue;
+            }
+            usernames.put(ids.get(i), username);
+        }
+        return usernames;
+    }
+
+    public Set<Integer> getOnlineUsersIds(){
+        return onlineUsersReplica.getOnlineIds();
     }
 
     public boolean isUserExists(String username) {
@@ -55,9 +133,8 @@ public class UsersRepository {
         }
         String userKey = redisTemplate.opsForValue().get(String.format(USERNAME_KEY, username));
         int userId = parseUserId(Objects.requireNonNull(userKey));
-        boolean isOnline = redisTemplate.opsForSet().isMember(ONLINE_USERS_KEY, String.valueOf(userId));
         // We have all the info needed to store the valid user object into session.
-        return new User(userId, username, isOnline);
+        return new User(userId, username, onlineUsersReplica.isOnline(userId));
     }
 
 
@@ -66,12 +143,4 @@ public class UsersRepository {
         return Integer.parseInt(userIds[userIds.length - 1]);
     }
 
-    public void addUserToOnlineList(String userId){
-        redisTemplate.opsForSet().add(ONLINE_USERS_KEY, userId);
-    }
-
-    public void removeUserFromOnlineList(String userId){
-        redisTemplate.opsForSet().remove(ONLINE_USERS_KEY, userId);
-    }
-
 }
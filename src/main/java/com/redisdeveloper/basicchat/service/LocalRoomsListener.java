@@ -0,0 +1,17 @@
+package com.redisdeveloper.basicchat.service;
+
+import java.util.Collection;
+
+/**
+ * Notified by {@link RedisMessageSubscriber} when the set of rooms with at least one locally connected member
+ * changes, i.e. the rooms whose messages this node has to receive.
+ *
+ * The callbacks are invoked after the routing index was updated and outside of its lock, so they may be
+ * delivered out of order: implementations should check {@link RedisMessageSubscriber#isRoomWatched(String)}.
+ */
+public interface LocalRoomsListener {
+
+    void onRoomsWatched(Collection<String> roomIds);
+
+    void onRoomsUnwatched(Collection<String> roomIds);
+}
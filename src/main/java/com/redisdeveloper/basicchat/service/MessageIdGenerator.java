@@ -0,0 +1,177 @@
+package com.redisdeveloper.basicchat.service;
+
+import com.redisdeveloper.basicchat.model.MessageId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.Collections;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Assigns the ids of the messages (see {@link MessageId}). The ids of a node strictly increase: if the clock goes
+ * back, or more than 128 messages arrive within a millisecond, the ids continue from the last one instead of
+ * waiting for the clock. Ids of different nodes are ordered by time, to the clock skew between the nodes.
+ *
+ * The node number is "chat.message-id.node" if it's set. Otherwise each node leases a free one in Redis at startup
+ * ("message_id:node:{n}", set with NX and a time to live) and renews the lease periodically, so no two live nodes
+ * share a number; the startup fails if all 32 are taken. A node which lost its lease (e.g. stalled for longer than
+ * the lease) leases a free number again, and doesn't assign ids until it has one.
+ */
+@Service
+public class MessageIdGenerator implements DisposableBean {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MessageIdGenerator.class);
+
+    private static final String NODE_COUNTER_KEY = "message_id:nodes";
+    private static final String NODE_LEASE_KEY = "message_id:node:%d";
+
+    private static final RedisScript<Long> LEASE_SCRIPT =
+            RedisScript.of(new ClassPathResource("scripts/message_id_lease.lua"), Long.class);
+
+    private final StringRedisTemplate redisTemplate;
+    private final boolean leased;
+    private final long leaseMillis;
+    // Identifies the leases of this node.
+    private final String token = UUID.randomUUID().toString();
+
+    // -1 while the node has no number.
+    private int node;
+
+    private long lastMillis;
+    private int sequence;
+    private int pastSequence;
+
+    @Autowired
+    public MessageIdGenerator(StringRedisTemplate redisTemplate, @Value("${chat.message-id.node:-1}") int node,
+                              @Value("${chat.message-id.lease-millis:30000}") long leaseMillis) {
+        if (node > MessageId.MAX_NODE) {
+            throw new IllegalArgumentException("chat.message-id.node must be at most " + MessageId.MAX_NODE);
+        }
+        this.redisTemplate = redisTemplate;
+        this.leased = node < 0;
+        this.leaseMillis = leaseMillis;
+        if (leased) {
+            node = leaseNode();
+            if (node < 0) {
+                throw new IllegalStateException("All " + (MessageId.MAX_NODE + 1)
+                        + " message id node numbers are leased by other nodes");
+            }
+        }
+        this.node = node;
+        LOGGER.info("Assigning message ids as node {}", node);
+    }
+
+    /**
+     * Lease the first free node number, starting after the one taken by the previous node to start, so the nodes
+     * don't all try the same ones.
+     *
+     * @return the node number, -1 if they are all leased
+     */
+    private int leaseNode() {
+        long counter = Objects.requireNonNull(redisTemplate.opsForValue().increment(NODE_COUNTER_KEY));
+        for (int i = 0; i <= MessageId.MAX_NODE; i++) {
+            int candidate = (int) ((counter - 1 + i) % (MessageId.MAX_NODE + 1));
+            Boolean acquired = redisTemplate.opsForValue()
+                    .setIfAbsent(getLeaseKey(candidate), token, leaseMillis, TimeUnit.MILLISECONDS);
+            if (Boolean.TRUE.equals(acquired)) {
+                return candidate;
+            }
+        }
+        return -1;
+    }
+
+    private static String getLeaseKey(int node) {
+        return String.format(NODE_LEASE_KEY, node);
+    }
+
+    /**
+     * Renew the lease of the node number, or lease a new one if it was lost.
+     */
+    @Scheduled(fixedDelayString = "${chat.message-id.lease-renew-interval-millis:10000}")
+    public void renewLease() {
+        if (!leased) {
+            return;
+        }
+        int current;
+        synchronized (this) {
+            current = node;
+        }
+        if (current >= 0 && extendLease(current, leaseMillis)) {
+            return;
+        }
+        int renewed = leaseNode();
+        synchronized (this) {
+            node = renewed;
+        }
+        if (renewed < 0) {
+            LOGGER.error("Lost the lease of message id node {} and all the others are leased, not assigning ids",
+                    current);
+        } else {
+            LOGGER.warn("Lost the lease of message id node {}, assigning message ids as node {}", current, renewed);
+        }
+    }
+
+    private boolean extendLease(int node, long millis) {
+        Long held = redisTemplate.execute(LEASE_SCRIPT, Collections.singletonList(getLeaseKey(node)),
+                token, String.valueOf(millis));
+        return held != null && held == 1;
+    }
+
+    /**
+     * Release the node number, so a node starting right after can take it.
+     */
+    @Override
+    public void destroy() {
+        int current;
+        synchronized (this) {
+            current = node;
+            node = -1;
+        }
+        if (leased && current >= 0) {
+            extendLease(current, 0);
+        }
+    }
+
+    /**
+     * @throws IllegalStateException if the node has no number, see {@link #renewLease()}
+     */
+    public synchronized long nextId() {
+        checkNode();
+        long now = System.currentTimeMillis();
+        if (now > lastMillis) {
+            lastMillis = now;
+            sequence = 0;
+        } else if (sequence < MessageId.MAX_SEQUENCE) {
+            sequence++;
+        } else {
+            lastMillis++;
+            sequence = 0;
+        }
+        return MessageId.of(lastMillis, node, sequence);
+    }
+
+    /**
+     * An id for a message sent at a past time, e.g. for demo data. Unlike {@link #nextId()} it's only unique
+     * among the last 128 ids it returned for the same millisecond.
+     */
+    public synchronized long idAt(long timestampMillis) {
+        checkNode();
+        pastSequence = (pastSequence + 1) & MessageId.MAX_SEQUENCE;
+        return MessageId.of(timestampMillis, node, pastSequence);
+    }
+
+    private void checkNode() {
+        if (node < 0) {
+            throw new IllegalStateException("This node has no message id node number");
+        }
+    }
+}
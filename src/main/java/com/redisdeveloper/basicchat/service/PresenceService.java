@@ -0,0 +1,205 @@
+package com.redisdeveloper.basicchat.service;
+
+import com.redisdeveloper.basicchat.codec.JsonCodec;
+import com.redisdeveloper.basicchat.model.MessageType;
+import com.redisdeveloper.basicchat.model.User;
+import com.redisdeveloper.basicchat.repository.PresenceStore;
+import com.redisdeveloper.basicchat.repository.UsersRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Presence derived from the /chat/stream connections held by the nodes, rather than from the events sent by the
+ * clients. Each node counts the open streams of its users, and periodically records the users it holds a stream
+ * of in a sorted set scored by the time they were last seen. Users which no node has seen for chat.presence.ttl
+ * are swept out of the online users in batches, so a crashed browser or a dead node doesn't leave them online.
+ *
+ * Changes are announced with the usual "user.connected" / "user.disconnected" events.
+ */
+@Service
+public class PresenceService implements InitializingBean {
+    private static final Logger LOGGER = LoggerFactory.getLogger(PresenceService.class);
+
+    public static final String LAST_SEEN_KEY = "online_users:last_seen";
+
+    // Bounds the number of users recorded by one script call, so a large node doesn't block Redis for long.
+    private static final int HEARTBEAT_BATCH = 500;
+    // Batches expired by one sweep, the rest is left to the next run.
+    private static final int MAX_SWEEP_BATCHES = 10;
+
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+
+    @Autowired
+    private UsersRepository usersRepository;
+
+    @Autowired
+    private PresenceStore presenceStore;
+
+    @Autowired
+    private JsonCodec jsonCodec;
+
+    @Autowired
+    private ChannelTopic topic;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private SseDeliveryService sseDeliveryService;
+
+    @Value("${chat.presence.ttl-millis:30000}")
+    private long ttlMillis;
+
+    @Value("${chat.presence.sweep-batch:100}")
+    private int sweepBatch;
+
+    // userId -> open streams of the user on this node.
+    private final Map<Integer, Integer> connectionCounts = new HashMap<>();
+
+    private Counter expiredUsers;
+
+    // The scripts update the online users, so they're run with the functions of the presence backend.
+    @SuppressWarnings("rawtypes")
+    private RedisScript<List> heartbeatScript;
+    @SuppressWarnings("rawtypes")
+    private RedisScript<List> staleScript;
+    @SuppressWarnings("rawtypes")
+    private RedisScript<List> expireScript;
+
+    @Override
+    public void afterPropertiesSet() {
+        heartbeatScript = presenceStore.loadScript("scripts/presence_heartbeat.lua", List.class);
+        staleScript = presenceStore.loadScript("scripts/presence_stale.lua", List.class);
+        expireScript = presenceStore.loadScript("scripts/presence_expire.lua", List.class);
+        Gauge.builder("chat.presence.local.users", this, PresenceService::getLocalUserCount)
+                .description("Users with at least one open stream on this node")
+                .register(meterRegistry);
+        expiredUsers = Counter.builder("chat.presence.expired")
+                .description("Users marked offline because no node has seen them within the TTL")
+                .register(meterRegistry);
+    }
+
+    public synchronized int getLocalUserCount() {
+        return connectionCounts.size();
+    }
+
+    /**
+     * Count a new stream of the user, the first one marks the user as online right away.
+     */
+    public void connectionOpened(int userId) {
+        boolean first;
+        synchronized (this) {
+            first = connectionCounts.merge(userId, 1, Integer::sum) == 1;
+        }
+        if (first) {
+            recordSeen(Collections.singletonList(userId));
+        }
+    }
+
+    /**
+     * Forget a closed stream of the user. The user stays online until the TTL expires, so a client reconnecting
+     * its stream (or holding one on another node) doesn't flap offline.
+     */
+    public synchronized void connectionClosed(int userId) {
+        connectionCounts.computeIfPresent(userId, (id, count) -> count > 1 ? count - 1 : null);
+    }
+
+    /**
+     * Record the users holding a stream on this node as seen. The streams are pinged as well, so those of clients
+     * which went away are closed and their users are no longer recorded by the next heartbeat.
+     */
+    @Scheduled(fixedDelayString = "${chat.presence.heartbeat-interval-millis:10000}")
+    public void heartbeat() {
+        sseDeliveryService.ping();
+        List<Integer> userIds;
+        synchronized (this) {
+            userIds = new ArrayList<>(connectionCounts.keySet());
+        }
+        for (int start = 0; start < userIds.size(); start += HEARTBEAT_BATCH) {
+            recordSeen(userIds.subList(start, Math.min(start + HEARTBEAT_BATCH, userIds.size())));
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${chat.presence.sweep-interval-millis:5000}")
+    public void sweep() {
+        long now = System.currentTimeMillis();
+        String cutoff = String.valueOf(now - ttlMillis);
+        for (int batch = 0; batch < MAX_SWEEP_BATCHES; batch++) {
+            List<String> stale = runScript(staleScript, String.valueOf(now), cutoff, String.valueOf(sweepBatch));
+            if (stale.isEmpty()) {
+                return;
+            }
+            List<String> expired = runScript(expireScript, withEvents(MessageType.USER_DISCONNECTED, stale, cutoff));
+            if (!expired.isEmpty()) {
+                LOGGER.debug("Users expired from the online list: {}", expired);
+                expiredUsers.increment(expired.size());
+            }
+            if (stale.size() < sweepBatch) {
+                return;
+            }
+        }
+    }
+
+    private void recordSeen(List<Integer> userIds) {
+        List<String> ids = new ArrayList<>();
+        for (Integer userId : userIds) {
+            ids.add(String.valueOf(userId));
+        }
+        runScript(heartbeatScript,
+                withEvents(MessageType.USER_CONNECTED, ids, String.valueOf(System.currentTimeMillis())));
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<String> runScript(@SuppressWarnings("rawtypes") RedisScript<List> script, Object... args) {
+        List<String> result = redisTemplate.execute(script,
+                Arrays.asList(presenceStore.getKey(), LAST_SEEN_KEY), args);
+        return result != null ? result : Collections.emptyList();
+    }
+
+    /**
+     * Script arguments: the first argument, the channel of the events, then each user id followed by the event
+     * announcing its change, which the script publishes only if the user changes. The event of a user which
+     * doesn't exist is empty.
+     */
+    private Object[] withEvents(MessageType type, List<String> userIds, String firstArg) {
+        Map<String, Integer> ids = new LinkedHashMap<>();
+        for (String userId : userIds) {
+            try {
+                ids.put(userId, Integer.parseInt(userId));
+            } catch (NumberFormatException e) {
+                LOGGER.warn("Malformed online user id: {}", userId);
+            }
+        }
+        Map<Integer, String> usernames = usersRepository.getUsernames(ids.values());
+        boolean isOnline = type == MessageType.USER_CONNECTED;
+
+        Object[] args = new Object[2 + 2 * userIds.size()];
+        args[0] = firstArg;
+        args[1] = topic.getTopic();
+        for (int i = 0; i < userIds.size(); i++) {
+            Integer id = ids.get(userIds.get(i));
+            String username = id != null ? usernames.get(id) : null;
+            args[2 + 2 * i] = userIds.get(i);
+            args[3 + 2 * i] = username == null ? ""
+                    : new String(jsonCodec.writeUserEvent(type.value(), new User(id, username, isOnline)),
+                            StandardCharsets.UTF_8);
+        }
+        return args;
+    }
+}
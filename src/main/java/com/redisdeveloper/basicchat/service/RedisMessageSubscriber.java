@@ -1,35 +1,423 @@
 package com.redisdeveloper.basicchat.service;
 
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.redisdeveloper.basicchat.codec.JsonCodec;
+import com.redisdeveloper.basicchat.config.PayloadLogSampler;
+import com.redisdeveloper.basicchat.model.MessageType;
+import com.redisdeveloper.basicchat.repository.MessageStore;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.connection.Message;
 import org.springframework.data.redis.connection.MessageListener;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.function.Function;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ThreadLocalRandom;
 
 @Service
 public class RedisMessageSubscriber implements MessageListener {
     private static final Logger LOGGER = LoggerFactory.getLogger(RedisMessageSubscriber.class);
 
-    CopyOnWriteArrayList<Function<String, Integer>> handlers = new CopyOnWriteArrayList<>();
+    private static final String DEFAULT_ROOM_ID = "0";
+
+    // Every attached connection, used for events which are not bound to a room (e.g. "user.connected").
+    CopyOnWriteArrayList<SseConnection> connections = new CopyOnWriteArrayList<>();
+
+    // Routing index: userId -> the user's open streams, roomId -> locally connected members.
+    private final Map<Integer, Set<SseConnection>> connectionsByUser = new ConcurrentHashMap<>();
+    private final Map<String, Set<Integer>> usersByRoom = new ConcurrentHashMap<>();
+    private final Map<Integer, Set<String>> roomsByUser = new HashMap<>();
+
+    private final List<LocalRoomsListener> roomsListeners = new CopyOnWriteArrayList<>();
+
+    // Identifies this node (and process) in the event ids, the sequence of the events is not kept across restarts.
+    private final String nodeId = Long.toString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE, 36);
+    private final SseReplayBuffer replayBuffer;
+    private long lastSequence;
+    // roomId -> sequence of the last event delivered before the room was watched.
+    private final Map<String, Long> roomWatchedSince = new HashMap<>();
+
+    @Autowired
+    private PayloadLogSampler payloadLogSampler;
+
+    @Autowired
+    private MessageStore messageStore;
+
+    @Autowired
+    private JsonCodec jsonCodec;
+
+    @Value("${chat.sse.replay-history-limit:50}")
+    private int replayHistoryLimit;
+
+    @Value("${chat.rooms.created-catch-up-millis:5000}")
+    private long createdCatchUpMillis;
+
+    @Autowired
+    public RedisMessageSubscriber(@Value("${chat.sse.replay-buffer-size:1024}") int replayBufferSize) {
+        this.replayBuffer = new SseReplayBuffer(replayBufferSize);
+    }
 
     @Override
     public void onMessage(final Message message, final byte[] pattern) {
-        String messageBody = new String(message.getBody());
+        if (LOGGER.isDebugEnabled() && payloadLogSampler.sample()) {
+            LOGGER.debug("Received message in global subscriber: {}", message);
+        }
+        deliver(message.getBody());
+    }
+
+    /**
+     * Route a serialized event to the local streams: "message" and "show.room" events to the members of their
+     * room, any other event to every stream. Every event gets the next id of this node and is kept for replay.
+     * A message which is still in the replay buffer was delivered already and is skipped.
+     */
+    public void deliver(byte[] body) {
+        long receivedNanos = System.nanoTime();
+        String messageBody = new String(body, StandardCharsets.UTF_8);
+        Route route = parseRoute(messageBody);
+        if (route != null && route.created) {
+            // The participants connected to this node join the new room, so the node starts receiving the
+            // messages of the room.
+            joinCreatedRoom(route.roomId);
+        }
+        deliver(body, route, receivedNanos);
+        if (route != null && route.created && isRoomWatched(route.roomId)) {
+            catchUpCreatedRoom(route.roomId);
+        }
+    }
+
+    private void deliver(byte[] body, Route route, long receivedNanos) {
+        // Ids are assigned and the frames queued under the lock, so every stream sees increasing ids and a
+        // stream attached meanwhile gets each event either replayed or delivered, never both.
+        synchronized (this) {
+            if (route != null && route.messageId != null && replayBuffer.containsMessage(route.messageId)) {
+                return;
+            }
+            long sequence = ++lastSequence;
+            // The payload is framed once and the same bytes are written to every recipient.
+            SseEventId eventId = new SseEventId(nodeId, sequence, System.currentTimeMillis());
+            SseFrame frame = SseFrame.event(eventId.toString(), body, receivedNanos);
+            replayBuffer.add(sequence, frame, route);
+
+            if (route == null) {
+                for (SseConnection connection : connections) {
+                    connection.offer(frame);
+                }
+                return;
+            }
+            for (Integer userId : getRoomMembers(route.roomId)) {
+                Set<SseConnection> userConnections = connectionsByUser.get(userId);
+                if (userConnections == null) {
+                    continue;
+                }
+                for (SseConnection connection : userConnections) {
+                    connection.offer(frame);
+                }
+            }
+        }
+    }
+
+    /**
+     * Whether the events following the given one can be replayed from the buffer of this node. Events of a room
+     * are only received while the room is watched, so the rooms must have been watched since then as well.
+     */
+    public synchronized boolean canReplay(SseEventId eventId, Collection<String> roomIds) {
+        if (!nodeId.equals(eventId.getNode()) || !replayBuffer.covers(eventId.getSequence())) {
+            return false;
+        }
+        for (String roomId : roomIds) {
+            Long watchedSince = roomWatchedSince.get(roomId);
+            if (watchedSince == null || watchedSince > eventId.getSequence()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Sequence of the last event delivered by this node.
+     */
+    public synchronized long getLastSequence() {
+        return lastSequence;
+    }
+
+    /**
+     * Register a listener of the watched rooms, it's notified right away of the rooms watched so far.
+     */
+    public void addLocalRoomsListener(LocalRoomsListener listener) {
+        roomsListeners.add(listener);
+        List<String> watchedRooms = new ArrayList<>(usersByRoom.keySet());
+        if (!watchedRooms.isEmpty()) {
+            listener.onRoomsWatched(watchedRooms);
+        }
+    }
+
+    /**
+     * Whether at least one locally connected user is a member of the room.
+     */
+    public boolean isRoomWatched(String roomId) {
+        return usersByRoom.containsKey(roomId);
+    }
+
+    public void attach(SseConnection connection, Collection<String> roomIds) {
+        attach(connection, roomIds, -1, Collections.emptyList(), Collections.emptySet());
+    }
+
+    /**
+     * Attach a stream which resumes a previous one: the given history is queued first, followed by the events
+     * delivered after the given sequence which are still in the replay buffer, then the new events. The history
+     * is read while events are delivered, so messages found in both are only sent from the history.
+     *
+     * @param replayAfter       sequence of the last event the client has received, negative to replay nothing
+     * @param history           events the client missed which are older than the replay buffer
+     * @param historyMessageIds ids of the messages of the history
+     */
+    public void attach(SseConnection connection, Collection<String> roomIds, long replayAfter, List<SseFrame> history,
+                       Set<Long> historyMessageIds) {
+        List<String> watchedRooms = new ArrayList<>();
+        synchronized (this) {
+            int userId = connection.getUserId();
+            connections.add(connection);
+            connectionsByUser.computeIfAbsent(userId, k -> new CopyOnWriteArraySet<>()).add(connection);
+            for (String roomId : roomIds) {
+                if (addMember(userId, roomId)) {
+                    watchedRooms.add(roomId);
+                }
+            }
+            if (replayAfter >= 0) {
+                replay(connection, replayAfter, history, historyMessageIds);
+            }
+        }
+        notifyRoomsWatched(watchedRooms);
+    }
+
+    private void replay(SseConnection connection, long replayAfter, List<SseFrame> history,
+                        Set<Long> historyMessageIds) {
+        int userId = connection.getUserId();
+        List<SseFrame> frames = new ArrayList<>(history);
+        frames.addAll(replayBuffer.collectAfter(replayAfter, route -> route == null
+                || getRoomMembers(route.roomId).contains(userId) && !historyMessageIds.contains(route.messageId)));
+        // Only the newest events fit into the send queue, like with a client which doesn't keep up.
+        int skipped = Math.max(0, frames.size() - connection.getQueueCapacity());
+        if (skipped > 0) {
+            LOGGER.warn("Replaying only the last {} of {} missed events to user {}", connection.getQueueCapacity(),
+                    frames.size(), userId);
+        }
+        for (int i = skipped; i < frames.size(); i++) {
+            connection.offer(frames.get(i).withoutReceivedTime());
+        }
+    }
 
-        LOGGER.debug("Received message in global subscriber: "+ message.toString());
+    public void detach(SseConnection connection) {
+        List<String> unwatchedRooms = new ArrayList<>();
+        synchronized (this) {
+            removeConnection(connection, unwatchedRooms);
+        }
+        if (!unwatchedRooms.isEmpty()) {
+            for (LocalRoomsListener listener : roomsListeners) {
+                listener.onRoomsUnwatched(unwatchedRooms);
+            }
+        }
+    }
 
-        for (Function<String, Integer> handler : handlers) {
-            handler.apply(messageBody);
+    private void removeConnection(SseConnection connection, List<String> unwatchedRooms) {
+        int userId = connection.getUserId();
+        connections.remove(connection);
+        Set<SseConnection> userConnections = connectionsByUser.get(userId);
+        if (userConnections == null) {
+            return;
+        }
+        userConnections.remove(connection);
+        if (!userConnections.isEmpty()) {
+            return;
+        }
+        // The last stream of this user is gone, so it no longer has to be reachable through its rooms.
+        connectionsByUser.remove(userId);
+        Set<String> roomIds = roomsByUser.remove(userId);
+        if (roomIds == null) {
+            return;
+        }
+        for (String roomId : roomIds) {
+            Set<Integer> members = usersByRoom.computeIfPresent(roomId, (k, roomMembers) -> {
+                roomMembers.remove(userId);
+                return roomMembers.isEmpty() ? null : roomMembers;
+            });
+            if (members == null) {
+                roomWatchedSince.remove(roomId);
+                unwatchedRooms.add(roomId);
+            }
         }
     }
 
-    public void attach(Function<String, Integer> handler) {
-        handlers.add(handler);
+    /**
+     * Register the membership of a locally connected user in a room, so messages of the room reach its streams.
+     */
+    public void joinRoom(int userId, String roomId) {
+        boolean watched;
+        synchronized (this) {
+            watched = addMember(userId, roomId);
+        }
+        if (watched) {
+            notifyRoomsWatched(Collections.singletonList(roomId));
+        }
     }
-    public void detach(Function<String, Integer> handler) {
-        handlers.removeIf(e -> e.equals(handler));
+
+    /**
+     * @return whether the room had no local member so far
+     */
+    private boolean addMember(int userId, String roomId) {
+        if (!connectionsByUser.containsKey(userId)) {
+            return false;
+        }
+        roomsByUser.computeIfAbsent(userId, k -> new HashSet<>()).add(roomId);
+        // The index is only modified under the lock of the subscriber, readers don't lock.
+        Set<Integer> members = usersByRoom.get(roomId);
+        boolean created = members == null;
+        if (created) {
+            members = ConcurrentHashMap.newKeySet();
+            usersByRoom.put(roomId, members);
+            roomWatchedSince.put(roomId, lastSequence);
+        }
+        members.add(userId);
+        return created;
+    }
+
+    private void notifyRoomsWatched(List<String> roomIds) {
+        if (roomIds.isEmpty()) {
+            return;
+        }
+        for (LocalRoomsListener listener : roomsListeners) {
+            listener.onRoomsWatched(roomIds);
+        }
+    }
+
+    /**
+     * The room is created before the event is published, so a client may send a message to it before this node
+     * has received the event and started receiving the messages of the room. Those messages are stored, the ones
+     * stored shortly before the event was received are delivered now, the ones delivered meanwhile are skipped.
+     */
+    private void catchUpCreatedRoom(String roomId) {
+        long since = System.currentTimeMillis() - createdCatchUpMillis;
+        List<byte[]> messages = messageStore.getMessagesSince(Collections.singletonList(roomId), since,
+                replayHistoryLimit).get(roomId);
+        if (messages == null) {
+            return;
+        }
+        for (byte[] message : messages) {
+            byte[] event = jsonCodec.wrapMessageEvent(message);
+            deliver(event, parseRoute(new String(event, StandardCharsets.UTF_8)), System.nanoTime());
+        }
+    }
+
+    private void joinCreatedRoom(String roomId) {
+        for (String userId : roomId.split(":")) {
+            try {
+                joinRoom(Integer.parseInt(userId), roomId);
+            } catch (NumberFormatException e) {
+                LOGGER.warn("Unable to parse user id from roomId: {}", roomId);
+            }
+        }
+    }
+
+    private Collection<Integer> getRoomMembers(String roomId) {
+        Set<Integer> members = usersByRoom.get(roomId);
+        // Private room ids are built from the ids of both participants ("1:2"), so those are always routable,
+        // even if the room was created after the user has opened the stream.
+        String[] privateRoomUserIds = roomId.split(":");
+        if (privateRoomUserIds.length != 2) {
+            return members == null ? Collections.emptySet() : members;
+        }
+        Set<Integer> result = members == null ? new HashSet<>() : new HashSet<>(members);
+        for (String userId : privateRoomUserIds) {
+            try {
+                result.add(Integer.parseInt(userId));
+            } catch (NumberFormatException e) {
+                LOGGER.warn("Unable to parse user id from roomId: {}", roomId);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Extract the room of a "message" or "show.room" event, or null for events which have to be broadcast to every
+     * stream. Only the routing fields are read, the rest of the payload is skipped without building a tree.
+     */
+    static Route parseRoute(String messageBody) {
+        String type = null;
+        RouteFields route = null;
+        try (JsonReader reader = new JsonReader(new StringReader(messageBody))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if ("type".equals(name) && reader.peek() == JsonToken.STRING) {
+                    type = reader.nextString();
+                } else if ("data".equals(name) && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                    route = readRoute(reader);
+                } else {
+                    reader.skipValue();
+                }
+            }
+        } catch (IOException | IllegalStateException e) {
+            LOGGER.warn("Unable to read routing info from message, broadcasting it", e);
+            return null;
+        }
+        if (route == null) {
+            return null;
+        }
+        if (MessageType.MESSAGE.value().equals(type)) {
+            return new Route(route.roomId, false, route.messageId);
+        }
+        if (MessageType.SHOW_ROOM.value().equals(type) && route.id != null) {
+            return new Route(route.id, true, null);
+        }
+        return null;
+    }
+
+    // The type may follow the data, so both the fields of a message and the id of a room are read.
+    private static RouteFields readRoute(JsonReader reader) throws IOException {
+        RouteFields fields = new RouteFields();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if ("roomId".equals(name) && reader.peek() == JsonToken.STRING) {
+                fields.roomId = reader.nextString();
+            } else if ("id".equals(name) && reader.peek() == JsonToken.STRING) {
+                fields.id = reader.nextString();
+            } else if ("id".equals(name) && reader.peek() == JsonToken.NUMBER) {
+                fields.messageId = reader.nextLong();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return fields;
+    }
+
+    private static class RouteFields {
+        String roomId = DEFAULT_ROOM_ID;
+        String id;
+        Long messageId;
+    }
+
+    static class Route {
+        final String roomId;
+        // Whether the event announces a new room.
+        final boolean created;
+        // Id of the message, null for other events and messages stored before ids were assigned.
+        final Long messageId;
+
+        Route(String roomId, boolean created, Long messageId) {
+            this.roomId = roomId;
+            this.created = created;
+            this.messageId = messageId;
+        }
     }
-}
\ No newline at end of file
+}
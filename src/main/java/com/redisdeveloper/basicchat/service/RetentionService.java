@@ -0,0 +1,109 @@
+package com.redisdeveloper.basicchat.service;
+
+import com.redisdeveloper.basicchat.model.StoredMessage;
+import com.redisdeveloper.basicchat.repository.MessageArchive;
+import com.redisdeveloper.basicchat.repository.MessageStore;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bounds the history kept in Redis, enabled with "chat.retention.enabled". Every interval the oldest messages of
+ * each room beyond chat.retention.max-messages, or older than chat.retention.max-age-seconds, are removed in
+ * batches, after being appended to the {@link MessageArchive} if it's enabled. The newest message of a room is
+ * always kept, so a room doesn't disappear with its history.
+ *
+ * The archive is local to the node, so the retention should be enabled on a single node.
+ */
+@Service
+@ConditionalOnProperty(name = "chat.retention.enabled", havingValue = "true")
+public class RetentionService implements InitializingBean {
+    private static final Logger LOGGER = LoggerFactory.getLogger(RetentionService.class);
+
+    // Batches removed from one room per run, the rest is left to the next run.
+    private static final int MAX_BATCHES_PER_ROOM = 10;
+
+    @Autowired
+    private MessageStore messageStore;
+
+    @Autowired
+    private MessageArchive messageArchive;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${chat.retention.max-messages:0}")
+    private long maxMessages;
+
+    @Value("${chat.retention.max-age-seconds:0}")
+    private long maxAgeSeconds;
+
+    @Value("${chat.retention.batch:500}")
+    private int batchSize;
+
+    private Counter removedMessages;
+
+    @Override
+    public void afterPropertiesSet() {
+        if (maxMessages <= 0 && maxAgeSeconds <= 0) {
+            LOGGER.warn("Retention is enabled without chat.retention.max-messages nor max-age-seconds, "
+                    + "nothing is removed");
+        }
+        removedMessages = Counter.builder("chat.retention.removed")
+                .description("Messages removed from Redis by the retention")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "${chat.retention.interval-millis:60000}")
+    public void enforce() {
+        if (maxMessages <= 0 && maxAgeSeconds <= 0) {
+            return;
+        }
+        long minDate = maxAgeSeconds > 0 ? System.currentTimeMillis() / 1000 - maxAgeSeconds : Long.MIN_VALUE;
+        for (String roomId : messageStore.findRoomIds()) {
+            try {
+                trimRoom(roomId, minDate);
+            } catch (IOException e) {
+                LOGGER.error("Failed to archive the messages of room {}, keeping them in Redis", roomId, e);
+            }
+        }
+    }
+
+    private void trimRoom(String roomId, long minDate) throws IOException {
+        long max = maxMessages > 0 ? maxMessages : Long.MAX_VALUE;
+        for (int batch = 0; batch < MAX_BATCHES_PER_ROOM; batch++) {
+            long count = messageStore.countMessages(roomId);
+            List<StoredMessage> oldest = messageStore.getOldestMessages(roomId, (int) Math.min(batchSize, count - 1));
+            List<StoredMessage> expired = new ArrayList<>();
+            for (StoredMessage message : oldest) {
+                if (count - expired.size() <= max && message.getDate() >= minDate) {
+                    break;
+                }
+                expired.add(message);
+            }
+            if (expired.isEmpty()) {
+                return;
+            }
+            if (messageArchive.isEnabled()) {
+                messageArchive.append(roomId, expired);
+            }
+            messageStore.removeMessages(roomId, expired);
+            removedMessages.increment(expired.size());
+            LOGGER.debug("Removed {} messages of room {}", expired.size(), roomId);
+            if (expired.size() < batchSize) {
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.redisdeveloper.basicchat.service;
+
+import com.redisdeveloper.basicchat.repository.SortedSetMessageStore;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.data.redis.listener.adapter.MessageListenerAdapter;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+
+/**
+ * Subscribes the node to the channels of the rooms watched by its connected users, and unsubscribes once the
+ * last local member of a room is gone. Each node only receives the messages of its own rooms, so the pub/sub
+ * traffic of a node grows with its local users instead of the traffic of the whole chat. Events which are not
+ * bound to a room still go through the global "MESSAGES" topic.
+ *
+ * Only used by the "zset" message storage, the "stream" storage reads the rooms with XREAD instead.
+ */
+@Service
+@ConditionalOnProperty(name = "chat.storage", havingValue = "zset", matchIfMissing = true)
+public class RoomChannelSubscriptions implements LocalRoomsListener, InitializingBean {
+    private static final Logger LOGGER = LoggerFactory.getLogger(RoomChannelSubscriptions.class);
+
+    @Autowired
+    private RedisMessageListenerContainer redisContainer;
+
+    @Autowired
+    private MessageListenerAdapter messageListener;
+
+    @Autowired
+    private SortedSetMessageStore messageStore;
+
+    @Autowired
+    private RedisMessageSubscriber redisMessageSubscriber;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    // roomId -> channel the node is subscribed to.
+    private final Map<String, ChannelTopic> subscriptions = new HashMap<>();
+
+    @Override
+    public void afterPropertiesSet() {
+        Gauge.builder("chat.pubsub.room.subscriptions", this, RoomChannelSubscriptions::getSubscriptionCount)
+                .description("Room channels this node is subscribed to")
+                .register(meterRegistry);
+        redisMessageSubscriber.addLocalRoomsListener(this);
+    }
+
+    public synchronized int getSubscriptionCount() {
+        return subscriptions.size();
+    }
+
+    @Override
+    public synchronized void onRoomsWatched(Collection<String> roomIds) {
+        List<ChannelTopic> topics = new ArrayList<>();
+        for (String roomId : roomIds) {
+            if (subscriptions.containsKey(roomId) || !redisMessageSubscriber.isRoomWatched(roomId)) {
+                continue;
+            }
+            ChannelTopic channel = new ChannelTopic(messageStore.getRoomChannel(roomId));
+            subscriptions.put(roomId, channel);
+            topics.add(channel);
+        }
+        if (!topics.isEmpty()) {
+            LOGGER.debug("Subscribing to room channels: {}", topics);
+            redisContainer.addMessageListener(messageListener, topics);
+        }
+    }
+
+    @Override
+    public synchronized void onRoomsUnwatched(Collection<String> roomIds) {
+        List<ChannelTopic> topics = new ArrayList<>();
+        for (String roomId : roomIds) {
+            if (redisMessageSubscriber.isRoomWatched(roomId)) {
+                continue;
+            }
+            ChannelTopic channel = subscriptions.remove(roomId);
+            if (channel != null) {
+                topics.add(channel);
+            }
+        }
+        if (!topics.isEmpty()) {
+            LOGGER.debug("Unsubscribing from room channels: {}", topics);
+            redisContainer.removeMessageListener(messageListener, topics);
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package com.redisdeveloper.basicchat.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A single /chat/stream client. Messages are put into a bounded queue by the Redis listener thread and written
+ * to the emitter by the shared writer executor, one drain task per connection at a time, so a slow client
+ * never blocks the delivery to the other ones.
+ */
+public class SseConnection {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SseConnection.class);
+
+    // Upper bound of messages written by one drain task before yielding the writer thread to other connections.
+    private static final int MAX_DRAIN_BATCH = 64;
+
+    private final int userId;
+    private final int queueCapacity;
+    private final SseFrameEmitter emitter;
+    private final BlockingQueue<SseFrame> queue;
+    private final SseOverflowPolicy overflowPolicy;
+    private final Executor writer;
+    private final SseDeliveryService deliveryService;
+
+    private final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+    private final CopyOnWriteArrayList<Runnable> closeCallbacks = new CopyOnWriteArrayList<>();
+
+    SseConnection(int userId, SseFrameEmitter emitter, int queueCapacity, SseOverflowPolicy overflowPolicy,
+                  Executor writer, SseDeliveryService deliveryService) {
+        this.userId = userId;
+        this.emitter = emitter;
+        this.queueCapacity = queueCapacity;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.overflowPolicy = overflowPolicy;
+        this.writer = writer;
+        this.deliveryService = deliveryService;
+    }
+
+    public int getUserId() {
+        return userId;
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public boolean isClosed() {
+        return closed.get();
+    }
+
+    /**
+     * Register a callback which is run once the connection is closed, whatever the reason.
+     */
+    public void onClose(Runnable callback) {
+        closeCallbacks.add(callback);
+        if (closed.get() && closeCallbacks.remove(callback)) {
+            callback.run();
+        }
+    }
+
+    /**
+     * Queue a message for this client without blocking the caller. The frame is shared between all recipients.
+     */
+    public void offer(SseFrame frame) {
+        if (closed.get()) {
+            return;
+        }
+        while (!queue.offer(frame)) {
+            if (overflowPolicy == SseOverflowPolicy.DISCONNECT) {
+                LOGGER.warn("Send queue of user {} is full, disconnecting the slow consumer", userId);
+                deliveryService.recordSlowConsumerDisconnect();
+                close(true);
+                return;
+            }
+            if (queue.poll() != null) {
+                deliveryService.recordDroppedMessage();
+            }
+        }
+        scheduleDrain();
+    }
+
+    /**
+     * Close the connection: pending messages are discarded and the close callbacks are run.
+     *
+     * @param completeEmitter whether the emitter still has to be completed, i.e. it wasn't closed by the container
+     */
+    public void close(boolean completeEmitter) {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        queue.clear();
+        for (Runnable callback : closeCallbacks) {
+            closeCallbacks.remove(callback);
+            callback.run();
+        }
+        if (completeEmitter) {
+            // Completing waits for an in-flight send, so it's done on the writer rather than the caller thread.
+            execute(this::completeEmitter);
+        }
+    }
+
+    private void completeEmitter() {
+        try {
+            emitter.complete();
+        } catch (RuntimeException e) {
+            // The request was already recycled by the container, e.g. after a timeout, nothing is left to flush.
+        }
+    }
+
+    private void scheduleDrain() {
+        if (drainScheduled.compareAndSet(false, true)) {
+            execute(this::drain);
+        }
+    }
+
+    private void drain() {
+        try {
+            for (int i = 0; i < MAX_DRAIN_BATCH && !closed.get(); i++) {
+                SseFrame frame = queue.poll();
+                if (frame == null) {
+                    break;
+                }
+                emitter.send(frame);
+                if (frame.getReceivedNanos() != 0) {
+                    deliveryService.recordDelivery(frame.getReceivedNanos());
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // This may occur when the client was disconnected, Tomcat may also fail with an unchecked exception
+            // when the write races with the recycling of a timed out request.
+            deliveryService.recordSendFailure();
+            close(false);
+        } finally {
+            drainScheduled.set(false);
+        }
+        if (!queue.isEmpty() && !closed.get()) {
+            scheduleDrain();
+        }
+    }
+
+    private void execute(Runnable task) {
+        try {
+            writer.execute(task);
+        } catch (RejectedExecutionException e) {
+            LOGGER.warn("SSE writer rejected a task of user {}, closing the connection", userId);
+            drainScheduled.set(false);
+            close(false);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.redisdeveloper.basicchat.service;
+
+import com.redisdeveloper.basicchat.config.VirtualThreads;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Delivery stage between the Redis listener thread and the SSE clients: owns the writer threads and the
+ * per-connection send queues, and exposes their state as metrics.
+ */
+@Service
+public class SseDeliveryService implements DisposableBean {
+
+    // Spring MVC only writes the response headers of an emitter with its first event, so the clients wouldn't
+    // see the stream as open until the first message arrives.
+    private static final SseFrame OPEN_FRAME = SseFrame.ofComment("open");
+    private static final SseFrame PING_FRAME = SseFrame.ofComment("ping");
+
+    private final int queueCapacity;
+    private final SseOverflowPolicy overflowPolicy;
+    private final ExecutorService writer;
+
+    private final Set<SseConnection> connections = ConcurrentHashMap.newKeySet();
+
+    private final Counter droppedMessages;
+    private final Counter slowConsumerDisconnects;
+    private final Counter sendFailures;
+    private final Counter bufferReplays;
+    private final Counter historyReplays;
+    private final Timer deliveryLatency;
+
+    @Autowired
+    public SseDeliveryService(MeterRegistry meterRegistry,
+                              @Value("${chat.sse.queue-capacity:256}") int queueCapacity,
+                              @Value("${chat.sse.overflow-policy:drop-oldest}") SseOverflowPolicy overflowPolicy,
+                              @Value("${chat.sse.writer-threads:0}") int writerThreads,
+                              @Value("${chat.virtual-threads.enabled:false}") boolean virtualThreads) {
+        this.queueCapacity = queueCapacity;
+        this.overflowPolicy = overflowPolicy;
+        if (virtualThreads) {
+            // A drain task blocked on a slow client only parks its virtual thread, so there is no pool to size.
+            this.writer = VirtualThreads.newExecutor("sse-writer-");
+        } else {
+            int threads = writerThreads > 0 ? writerThreads : Runtime.getRuntime().availableProcessors();
+            this.writer = Executors.newFixedThreadPool(threads, new CustomizableThreadFactory("sse-writer-"));
+        }
+
+        Gauge.builder("chat.sse.connections", connections, Set::size)
+                .description("Open /chat/stream connections")
+                .register(meterRegistry);
+        Gauge.builder("chat.sse.queue.depth", this, SseDeliveryService::getTotalQueueDepth)
+                .description("Messages waiting in the send queues of all connections")
+                .register(meterRegistry);
+        this.droppedMessages = Counter.builder("chat.sse.messages.dropped")
+                .description("Messages dropped because the send queue of a connection was full")
+                .register(meterRegistry);
+        this.slowConsumerDisconnects = Counter.builder("chat.sse.disconnects.slow")
+                .description("Connections closed because the send queue was full")
+                .register(meterRegistry);
+        this.sendFailures = Counter.builder("chat.sse.send.failures")
+                .description("Failed writes to a connection, the connection is closed afterwards")
+                .register(meterRegistry);
+        this.bufferReplays = Counter.builder("chat.sse.replays")
+                .tag("source", "buffer")
+                .description("Reconnected streams whose missed events were replayed")
+                .register(meterRegistry);
+        this.historyReplays = Counter.builder("chat.sse.replays")
+                .tag("source", "history")
+                .description("Reconnected streams whose missed events were replayed")
+                .register(meterRegistry);
+        this.deliveryLatency = Timer.builder("chat.sse.delivery")
+                .description("Time from the reception of an event by the node until it's written to a stream")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Wrap the emitter of a new /chat/stream request into a connection with its own send queue.
+     * The connection is closed automatically once the emitter completes, times out or fails.
+     */
+    public SseConnection open(int userId, SseFrameEmitter emitter) {
+        SseConnection connection = new SseConnection(userId, emitter, queueCapacity, overflowPolicy, writer, this);
+        connections.add(connection);
+        connection.onClose(() -> connections.remove(connection));
+
+        emitter.onCompletion(() -> connection.close(false));
+        emitter.onError((err) -> connection.close(true));
+        emitter.onTimeout(() -> connection.close(true));
+        connection.offer(OPEN_FRAME);
+        return connection;
+    }
+
+    /**
+     * Write a comment to every connection. A client which went away is only noticed once a write to its
+     * connection fails, so this closes the dead connections of idle streams.
+     */
+    public void ping() {
+        for (SseConnection connection : connections) {
+            connection.offer(PING_FRAME);
+        }
+    }
+
+    public int getTotalQueueDepth() {
+        int depth = 0;
+        for (SseConnection connection : connections) {
+            depth += connection.getQueueDepth();
+        }
+        return depth;
+    }
+
+    void recordDroppedMessage() {
+        droppedMessages.increment();
+    }
+
+    void recordSlowConsumerDisconnect() {
+        slowConsumerDisconnects.increment();
+    }
+
+    void recordSendFailure() {
+        sendFailures.increment();
+    }
+
+    void recordDelivery(long receivedNanos) {
+        deliveryLatency.record(System.nanoTime() - receivedNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param fromBuffer whether the missed events were replayed from the buffer of the node, or from the history
+     *                   stored in Redis
+     */
+    public void recordReplay(boolean fromBuffer) {
+        (fromBuffer ? bufferReplays : historyReplays).increment();
+    }
+
+    @Override
+    public void destroy() {
+        for (SseConnection connection : connections) {
+            connection.close(true);
+        }
+        writer.shutdown();
+    }
+}
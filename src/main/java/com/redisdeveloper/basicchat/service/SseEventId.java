@@ -0,0 +1,63 @@
+package com.redisdeveloper.basicchat.service;
+
+/**
+ * Id of an event sent to the /chat/stream clients, "{node}-{sequence}-{timestamp}".
+ * The sequence is increased for every event delivered by a node, so the ids of a stream are monotonic and a
+ * node can tell which events a reconnecting client missed. The node part tells whether the client reconnected
+ * to the same node (and process) which sent the event, the timestamp is used to find the missed messages in
+ * the stored history otherwise.
+ */
+public final class SseEventId {
+    private final String node;
+    private final long sequence;
+    private final long timestampMillis;
+
+    SseEventId(String node, long sequence, long timestampMillis) {
+        this.node = node;
+        this.sequence = sequence;
+        this.timestampMillis = timestampMillis;
+    }
+
+    public String getNode() {
+        return node;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public long getTimestampMillis() {
+        return timestampMillis;
+    }
+
+    /**
+     * The same position in the events of the node, at a later time. Used for the stored messages resent to a
+     * client which resumes from this id, so each of them has its own id.
+     */
+    public SseEventId withTimestamp(long timestampMillis) {
+        return new SseEventId(node, sequence, timestampMillis);
+    }
+
+    /**
+     * @return the id, or null if the value is not an id sent by a node (e.g. it was made up by the client)
+     */
+    public static SseEventId parse(String value) {
+        if (value == null) {
+            return null;
+        }
+        String[] parts = value.split("-");
+        if (parts.length != 3 || parts[0].isEmpty()) {
+            return null;
+        }
+        try {
+            return new SseEventId(parts[0], Long.parseLong(parts[1]), Long.parseLong(parts[2]));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return node + "-" + sequence + "-" + timestampMillis;
+    }
+}
@@ -0,0 +1,118 @@
+package com.redisdeveloper.basicchat.service;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A server-sent event encoded once into its wire format (optional "id:" line, "data:" lines and the blank
+ * terminator line), so the same bytes can be written to every recipient without re-encoding the payload per
+ * connection. Frames are written by {@link SseFrameEmitter}.
+ */
+public final class SseFrame {
+
+    private static final String ID_PREFIX = "id:";
+    private static final byte[] DATA_PREFIX = "data:".getBytes(StandardCharsets.UTF_8);
+
+    private final byte[] frame;
+    // System.nanoTime() when the node received the event, 0 if the delivery of the frame isn't timed.
+    private final long receivedNanos;
+
+    private SseFrame(byte[] frame, long receivedNanos) {
+        this.frame = frame;
+        this.receivedNanos = receivedNanos;
+    }
+
+    /**
+     * Frame a raw UTF-8 payload, e.g. the body of a Redis pub/sub message. Line breaks of the payload are
+     * turned into separate "data:" lines as required by the SSE format.
+     */
+    public static SseFrame data(byte[] utf8Payload) {
+        return event(null, utf8Payload);
+    }
+
+    /**
+     * Frame a raw UTF-8 payload with an "id:" line, which the browser sends back as Last-Event-ID when it
+     * reconnects.
+     *
+     * @param id id of the event, without line breaks, or null
+     */
+    public static SseFrame event(String id, byte[] utf8Payload) {
+        return event(id, utf8Payload, 0);
+    }
+
+    /**
+     * Frame an event received by the node at the given System.nanoTime(), the time until it's written to each
+     * stream is recorded.
+     */
+    public static SseFrame event(String id, byte[] utf8Payload, long receivedNanos) {
+        byte[] idLine = id == null ? new byte[0] : (ID_PREFIX + id + "\n").getBytes(StandardCharsets.UTF_8);
+        if (!containsLineBreak(utf8Payload)) {
+            // Common case, serialized JSON is a single line.
+            byte[] frame = new byte[idLine.length + DATA_PREFIX.length + utf8Payload.length + 2];
+            System.arraycopy(idLine, 0, frame, 0, idLine.length);
+            System.arraycopy(DATA_PREFIX, 0, frame, idLine.length, DATA_PREFIX.length);
+            System.arraycopy(utf8Payload, 0, frame, idLine.length + DATA_PREFIX.length, utf8Payload.length);
+            frame[frame.length - 2] = '\n';
+            frame[frame.length - 1] = '\n';
+            return new SseFrame(frame, receivedNanos);
+        }
+        ByteArrayOutputStream frame =
+                new ByteArrayOutputStream(idLine.length + utf8Payload.length + DATA_PREFIX.length + 2);
+        frame.write(idLine, 0, idLine.length);
+        frame.write(DATA_PREFIX, 0, DATA_PREFIX.length);
+        for (int i = 0; i < utf8Payload.length; i++) {
+            byte b = utf8Payload[i];
+            if (b == '\r') {
+                if (i + 1 < utf8Payload.length && utf8Payload[i + 1] == '\n') {
+                    i++;
+                }
+                b = '\n';
+            }
+            frame.write(b);
+            if (b == '\n') {
+                frame.write(DATA_PREFIX, 0, DATA_PREFIX.length);
+            }
+        }
+        frame.write('\n');
+        frame.write('\n');
+        return new SseFrame(frame.toByteArray(), receivedNanos);
+    }
+
+    private static boolean containsLineBreak(byte[] payload) {
+        for (byte b : payload) {
+            if (b == '\n' || b == '\r') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A comment line, which clients ignore, e.g. to write something to a stream without an event.
+     *
+     * @param comment comment without line breaks
+     */
+    public static SseFrame ofComment(String comment) {
+        return new SseFrame((":" + comment + "\n\n").getBytes(StandardCharsets.UTF_8), 0);
+    }
+
+    public static SseFrame data(String payload) {
+        return data(payload.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public long getReceivedNanos() {
+        return receivedNanos;
+    }
+
+    /**
+     * The same frame without the time it was received, e.g. to replay it to a stream which reconnected: the wait
+     * for the reconnection isn't a delivery latency.
+     */
+    public SseFrame withoutReceivedTime() {
+        return receivedNanos == 0 ? this : new SseFrame(frame, 0);
+    }
+
+    public byte[] getBytes() {
+        return frame;
+    }
+}
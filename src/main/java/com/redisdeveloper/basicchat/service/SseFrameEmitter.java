@@ -0,0 +1,30 @@
+package com.redisdeveloper.basicchat.service;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+
+/**
+ * The emitter of a /chat/stream response. It's only written with {@link SseFrame}s, which are already encoded:
+ * the response has the content type of {@link SseEmitter}, but the bytes of the frames are written as they are
+ * instead of going through an event builder.
+ */
+public class SseFrameEmitter extends ResponseBodyEmitter {
+
+    public void send(SseFrame frame) throws IOException {
+        send(frame.getBytes(), MediaType.TEXT_EVENT_STREAM);
+    }
+
+    @Override
+    protected void extendResponse(ServerHttpResponse outputMessage) {
+        super.extendResponse(outputMessage);
+        HttpHeaders headers = outputMessage.getHeaders();
+        if (headers.getContentType() == null) {
+            headers.setContentType(MediaType.TEXT_EVENT_STREAM);
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.redisdeveloper.basicchat.service;
+
+/**
+ * What to do when the send queue of an SSE connection is full because the client doesn't keep up.
+ */
+public enum SseOverflowPolicy {
+    /**
+     * Discard the oldest queued message to make room for the new one.
+     */
+    DROP_OLDEST,
+    /**
+     * Close the connection of the slow consumer, the client is expected to reconnect.
+     */
+    DISCONNECT
+}
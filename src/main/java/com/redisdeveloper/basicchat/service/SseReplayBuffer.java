@@ -0,0 +1,77 @@
+package com.redisdeveloper.basicchat.service;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * The last events delivered by this node, kept to replay them to clients which reconnect with a Last-Event-ID.
+ * Events are stored by their sequence number, which increases by one per event, so the buffer is a plain ring.
+ * Not thread-safe, it's guarded by the lock of {@link RedisMessageSubscriber}.
+ */
+class SseReplayBuffer {
+    private final long[] sequences;
+    private final SseFrame[] frames;
+    private final RedisMessageSubscriber.Route[] routes;
+    // Ids of the messages in the buffer.
+    private final Set<Long> messageIds = new HashSet<>();
+    private long lastSequence;
+
+    SseReplayBuffer(int capacity) {
+        this.sequences = new long[capacity];
+        this.frames = new SseFrame[capacity];
+        this.routes = new RedisMessageSubscriber.Route[capacity];
+    }
+
+    /**
+     * @param route routing of the event, null for an event sent to every stream
+     */
+    void add(long sequence, SseFrame frame, RedisMessageSubscriber.Route route) {
+        int index = index(sequence);
+        if (routes[index] != null && routes[index].messageId != null) {
+            messageIds.remove(routes[index].messageId);
+        }
+        if (route != null && route.messageId != null) {
+            messageIds.add(route.messageId);
+        }
+        sequences[index] = sequence;
+        frames[index] = frame;
+        routes[index] = route;
+        lastSequence = sequence;
+    }
+
+    /**
+     * Whether the message with the given id is one of the events in the buffer.
+     */
+    boolean containsMessage(long messageId) {
+        return messageIds.contains(messageId);
+    }
+
+    /**
+     * Whether all the events following the given one are still in the buffer.
+     */
+    boolean covers(long sequence) {
+        return sequence <= lastSequence && lastSequence - sequence <= frames.length;
+    }
+
+    /**
+     * The events following the given one, oldest first, which pass the filter.
+     */
+    List<SseFrame> collectAfter(long sequence, Predicate<RedisMessageSubscriber.Route> filter) {
+        List<SseFrame> result = new ArrayList<>();
+        long from = Math.max(sequence + 1, lastSequence - frames.length + 1);
+        for (long next = from; next <= lastSequence; next++) {
+            int index = index(next);
+            if (sequences[index] == next && frames[index] != null && filter.test(routes[index])) {
+                result.add(frames[index]);
+            }
+        }
+        return result;
+    }
+
+    private int index(long sequence) {
+        return (int) (sequence % frames.length);
+    }
+}
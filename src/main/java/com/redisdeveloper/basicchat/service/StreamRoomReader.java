@@ -0,0 +1,193 @@
+package com.redisdeveloper.basicchat.service;
+
+import com.redisdeveloper.basicchat.codec.JsonCodec;
+import com.redisdeveloper.basicchat.repository.StreamMessageStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.stream.ByteRecord;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Live delivery of the "stream" message storage. A single thread reads the streams of all the rooms watched by
+ * this node with one XREAD BLOCK on a dedicated connection, and hands the new entries to the
+ * {@link RedisMessageSubscriber} as "message" events.
+ *
+ * The id of the last entry read is kept per room, so after a failed read (e.g. a Redis failover or network
+ * blip) the node resumes right after it instead of losing the messages published meanwhile, as pub/sub would.
+ */
+@Service
+@ConditionalOnProperty(name = "chat.storage", havingValue = "stream")
+public class StreamRoomReader implements LocalRoomsListener, InitializingBean, DisposableBean {
+    private static final Logger LOGGER = LoggerFactory.getLogger(StreamRoomReader.class);
+
+    private static final long RETRY_DELAY_MILLIS = 1000;
+
+    @Autowired
+    private RedisConnectionFactory connectionFactory;
+
+    @Autowired
+    private StreamMessageStore messageStore;
+
+    @Autowired
+    private RedisMessageSubscriber redisMessageSubscriber;
+
+    @Autowired
+    private JsonCodec jsonCodec;
+
+    @Value("${chat.storage.stream.read-batch:100}")
+    private int readBatch;
+
+    @Value("${chat.storage.stream.block-millis:2000}")
+    private long blockMillis;
+
+    // roomId -> id of the last entry delivered from the stream of the room.
+    private final Map<String, String> lastIds = new ConcurrentHashMap<>();
+
+    private volatile boolean running;
+    private Thread thread;
+
+    @Override
+    public void afterPropertiesSet() {
+        running = true;
+        thread = new Thread(this::run, "stream-room-reader");
+        thread.setDaemon(true);
+        thread.start();
+        redisMessageSubscriber.addLocalRoomsListener(this);
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        running = false;
+        synchronized (lastIds) {
+            lastIds.notifyAll();
+        }
+        thread.join(blockMillis + RETRY_DELAY_MILLIS);
+    }
+
+    /**
+     * A newly watched room is read from its current last entry on, so only the messages added from now on
+     * are delivered, the older ones are part of the history the clients fetch.
+     */
+    @Override
+    public void onRoomsWatched(Collection<String> roomIds) {
+        synchronized (lastIds) {
+            for (String roomId : roomIds) {
+                if (lastIds.containsKey(roomId) || !redisMessageSubscriber.isRoomWatched(roomId)) {
+                    continue;
+                }
+                lastIds.put(roomId, messageStore.getLastEntryId(roomId));
+            }
+            lastIds.notifyAll();
+        }
+    }
+
+    @Override
+    public void onRoomsUnwatched(Collection<String> roomIds) {
+        synchronized (lastIds) {
+            for (String roomId : roomIds) {
+                if (!redisMessageSubscriber.isRoomWatched(roomId)) {
+                    lastIds.remove(roomId);
+                }
+            }
+        }
+    }
+
+    private void run() {
+        RedisConnection connection = null;
+        while (running) {
+            try {
+                if (connection == null) {
+                    connection = connectionFactory.getConnection();
+                }
+                readOnce(connection);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (RuntimeException e) {
+                LOGGER.warn("Reading the room streams failed, retrying", e);
+                closeQuietly(connection);
+                connection = null;
+                sleep(RETRY_DELAY_MILLIS);
+            }
+        }
+        closeQuietly(connection);
+    }
+
+    private void readOnce(RedisConnection connection) throws InterruptedException {
+        List<String> roomIds;
+        synchronized (lastIds) {
+            if (lastIds.isEmpty()) {
+                // Nothing to read until a local user joins a room.
+                lastIds.wait(blockMillis);
+                return;
+            }
+            roomIds = new ArrayList<>(lastIds.keySet());
+        }
+
+        // A room watched while the read is blocked is only picked up by the next read, at most blockMillis later.
+        // Its messages are not lost: the room is read from the entry which was the last one when it was watched.
+        Map<String, String> roomIdsByKey = new HashMap<>();
+        @SuppressWarnings("unchecked")
+        StreamOffset<byte[]>[] offsets = new StreamOffset[roomIds.size()];
+        for (int i = 0; i < roomIds.size(); i++) {
+            String roomId = roomIds.get(i);
+            String key = messageStore.getRoomKey(roomId);
+            roomIdsByKey.put(key, roomId);
+            ReadOffset offset = ReadOffset.from(lastIds.getOrDefault(roomId, "0-0"));
+            offsets[i] = StreamOffset.create(key.getBytes(StandardCharsets.UTF_8), offset);
+        }
+
+        List<ByteRecord> records = connection.xRead(
+                StreamReadOptions.empty().count(readBatch).block(Duration.ofMillis(blockMillis)), offsets);
+        if (records == null) {
+            return;
+        }
+        for (ByteRecord record : records) {
+            String roomId = roomIdsByKey.get(new String(record.getStream(), StandardCharsets.UTF_8));
+            // Only advance rooms which are still watched, an unwatched room is read from scratch if watched again.
+            if (roomId == null || lastIds.computeIfPresent(roomId, (k, v) -> record.getId().getValue()) == null) {
+                continue;
+            }
+            byte[] message = messageStore.getMessage(record, roomId);
+            if (message == null) {
+                LOGGER.warn("Skipping stream entry without message: {}", record.getId());
+                continue;
+            }
+            redisMessageSubscriber.deliver(jsonCodec.wrapMessageEvent(message));
+        }
+    }
+
+    private static void closeQuietly(RedisConnection connection) {
+        if (connection == null) {
+            return;
+        }
+        try {
+            connection.close();
+        } catch (RuntimeException e) {
+            LOGGER.debug("Failed to close the stream reader connection", e);
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,17 @@
+-- Persist a chat message and publish it in a single atomic round trip.
+--
+-- KEYS[1] - online user ids, a set or a bitmap depending on the backend (online_* functions of scripts/presence)
+-- KEYS[2] - sorted set of the room messages
+-- ARGV[1] - id of the sender, marked as online; empty if the sender is known to be online already
+-- ARGV[2] - score of the message in the room, its id
+-- ARGV[3] - serialized message, stored in the room
+-- ARGV[4] - pub/sub channel
+-- ARGV[5] - serialized pub/sub event
+--
+-- Returns the score the message was stored with.
+if ARGV[1] ~= '' then
+    online_add(KEYS[1], ARGV[1])
+end
+redis.call('ZADD', KEYS[2], ARGV[2], ARGV[3])
+redis.call('PUBLISH', ARGV[4], ARGV[5])
+return tonumber(ARGV[2])
@@ -0,0 +1,14 @@
+-- Persist a chat message into the stream of its room in a single atomic round trip.
+-- There is no PUBLISH, the nodes read new entries of the streams of their rooms with XREAD.
+--
+-- KEYS[1] - online user ids, a set or a bitmap depending on the backend (online_* functions of scripts/presence)
+-- KEYS[2] - stream of the room messages
+-- ARGV[1] - id of the sender, marked as online; empty if the sender is known to be online already
+-- ARGV[2] - approximate maximum length of the stream, older entries are trimmed
+-- ARGV[3] - serialized message, stored in the "message" field of the entry
+--
+-- Returns the id of the stream entry.
+if ARGV[1] ~= '' then
+    online_add(KEYS[1], ARGV[1])
+end
+return redis.call('XADD', KEYS[2], 'MAXLEN', '~', ARGV[2], '*', 'message', ARGV[3])
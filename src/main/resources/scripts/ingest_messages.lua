@@ -0,0 +1,22 @@
+-- Persist and publish a batch of chat messages in a single atomic round trip, the group commit of the write-behind.
+-- Same as ingest_message.lua for each message, in order.
+--
+-- KEYS[1]   - online user ids, a set or a bitmap depending on the backend (online_* functions of scripts/presence)
+-- KEYS[1+i] - sorted set of the room of the i-th message
+-- ARGV      - 5 values per message, the i-th message starting at ARGV[5*(i-1)+1]:
+--             id of the sender, marked as online, empty if the sender is known to be online already;
+--             score of the message in the room, its id; serialized message;
+--             pub/sub channel; serialized pub/sub event
+--
+-- Returns the scores the messages were stored with, as strings.
+local scores = {}
+for i = 1, #KEYS - 1 do
+    local arg = 5 * (i - 1)
+    if ARGV[arg + 1] ~= '' then
+        online_add(KEYS[1], ARGV[arg + 1])
+    end
+    redis.call('ZADD', KEYS[1 + i], ARGV[arg + 2], ARGV[arg + 3])
+    redis.call('PUBLISH', ARGV[arg + 4], ARGV[arg + 5])
+    scores[i] = ARGV[arg + 2]
+end
+return scores
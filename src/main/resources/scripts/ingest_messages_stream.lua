@@ -0,0 +1,20 @@
+-- Persist a batch of chat messages into the streams of their rooms in a single atomic round trip, the group commit
+-- of the write-behind. Same as ingest_message_stream.lua for each message, in order.
+--
+-- KEYS[1]   - online user ids, a set or a bitmap depending on the backend (online_* functions of scripts/presence)
+-- KEYS[1+i] - stream of the room of the i-th message
+-- ARGV[1]   - approximate maximum length of the streams, older entries are trimmed
+-- ARGV      - then 2 values per message, the i-th message starting at ARGV[2*(i-1)+2]:
+--             id of the sender, marked as online, empty if the sender is known to be online already;
+--             serialized message, stored in the "message" field of the entry
+--
+-- Returns the ids of the stream entries.
+local ids = {}
+for i = 1, #KEYS - 1 do
+    local arg = 2 * (i - 1) + 1
+    if ARGV[arg + 1] ~= '' then
+        online_add(KEYS[1], ARGV[arg + 1])
+    end
+    ids[i] = redis.call('XADD', KEYS[1 + i], 'MAXLEN', '~', ARGV[1], '*', 'message', ARGV[arg + 2])
+end
+return ids
@@ -0,0 +1,16 @@
+-- Extend or release the lease of a message id node number, only if this node still holds it.
+--
+-- KEYS[1] - lease of the node number
+-- ARGV[1] - token of the node holding the lease
+-- ARGV[2] - new time to live in milliseconds, 0 to release the lease
+--
+-- Returns 1 if the lease was held by the node, 0 otherwise.
+if redis.call('GET', KEYS[1]) ~= ARGV[1] then
+    return 0
+end
+if ARGV[2] == '0' then
+    redis.call('DEL', KEYS[1])
+else
+    redis.call('PEXPIRE', KEYS[1], ARGV[2])
+end
+return 1
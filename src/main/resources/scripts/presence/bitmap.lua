@@ -0,0 +1,47 @@
+-- Online users kept in a bitmap, the bit at the offset of a user id is set while the user is online
+-- (chat.presence.backend=bitmap). Prepended to the scripts updating the online users, after max_user_id is set
+-- to chat.presence.max-user-id.
+
+-- Ids which are not a valid offset (e.g. left in the last seen set by the set backend) are never online. Ids above
+-- max_user_id are rejected too, SETBIT would grow the bitmap up to the offset whatever the value.
+local function is_offset(id)
+    local offset = tonumber(id)
+    return offset ~= nil and offset >= 0 and offset <= max_user_id and offset % 1 == 0
+end
+
+local function online_accepts(id)
+    return is_offset(id)
+end
+
+local function online_add(key, id)
+    return is_offset(id) and redis.call('SETBIT', key, id, 1) == 0
+end
+
+local function online_remove(key, id)
+    return is_offset(id) and redis.call('SETBIT', key, id, 0) == 1
+end
+
+local function online_count(key)
+    return redis.call('BITCOUNT', key)
+end
+
+local function online_members(key)
+    local members = {}
+    local bitmap = redis.call('GET', key)
+    if not bitmap then
+        return members
+    end
+    for i = 1, #bitmap do
+        local byte = string.byte(bitmap, i)
+        if byte ~= 0 then
+            -- The first bit of a byte is its most significant one.
+            for offset = 0, 7 do
+                if bit.band(byte, bit.rshift(128, offset)) ~= 0 then
+                    members[#members + 1] = tostring((i - 1) * 8 + offset)
+                end
+            end
+        end
+    end
+    return members
+end
+
@@ -0,0 +1,23 @@
+-- Online users kept in a set of decimal user ids (chat.presence.backend=set).
+-- Prepended to the scripts updating the online users.
+
+local function online_accepts(id)
+    return true
+end
+
+local function online_add(key, id)
+    return redis.call('SADD', key, id) == 1
+end
+
+local function online_remove(key, id)
+    return redis.call('SREM', key, id) == 1
+end
+
+local function online_count(key)
+    return redis.call('SCARD', key)
+end
+
+local function online_members(key)
+    return redis.call('SMEMBERS', key)
+end
+
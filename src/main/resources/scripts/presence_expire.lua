@@ -0,0 +1,23 @@
+-- Mark stale users as offline and announce it. Users seen again since they were found stale are kept.
+--
+-- KEYS[1] - online user ids, a set or a bitmap depending on the backend (online_* functions of scripts/presence)
+-- KEYS[2] - sorted set of the online user ids scored by the time they were last seen
+-- ARGV[1] - users last seen at or before this time are expired
+-- ARGV[2] - pub/sub channel of the events
+-- ARGV[3..n] - pairs of the id of a stale user and its serialized "user.disconnected" event (may be empty)
+--
+-- Returns the ids of the users which were removed from the online set.
+local removed = {}
+for i = 3, #ARGV, 2 do
+    local lastSeen = redis.call('ZSCORE', KEYS[2], ARGV[i])
+    if lastSeen and tonumber(lastSeen) <= tonumber(ARGV[1]) then
+        redis.call('ZREM', KEYS[2], ARGV[i])
+        if online_remove(KEYS[1], ARGV[i]) then
+            removed[#removed + 1] = ARGV[i]
+            if ARGV[i + 1] ~= '' then
+                redis.call('PUBLISH', ARGV[2], ARGV[i + 1])
+            end
+        end
+    end
+end
+return removed
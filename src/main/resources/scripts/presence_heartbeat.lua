@@ -0,0 +1,24 @@
+-- Record that users hold a connection to a node, mark them as online and announce the ones which were not.
+-- The event is published by the script, so it can't be overtaken by the event of a concurrent expiry.
+--
+-- KEYS[1] - online user ids, a set or a bitmap depending on the backend (online_* functions of scripts/presence)
+-- KEYS[2] - sorted set of the online user ids scored by the time they were last seen
+-- ARGV[1] - current time in milliseconds
+-- ARGV[2] - pub/sub channel of the events
+-- ARGV[3..n] - pairs of the id of a connected user and its serialized "user.connected" event (may be empty)
+--
+-- Returns the ids of the users which were not online yet. Ids the backend can't hold are skipped, so the last seen
+-- set keeps the same members as the online users.
+local added = {}
+for i = 3, #ARGV, 2 do
+    if online_accepts(ARGV[i]) then
+        redis.call('ZADD', KEYS[2], ARGV[1], ARGV[i])
+        if online_add(KEYS[1], ARGV[i]) then
+            added[#added + 1] = ARGV[i]
+            if ARGV[i + 1] ~= '' then
+                redis.call('PUBLISH', ARGV[2], ARGV[i + 1])
+            end
+        end
+    end
+end
+return added
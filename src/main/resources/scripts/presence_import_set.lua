@@ -0,0 +1,16 @@
+-- Copy the online users of the set backend into the bitmap backend, once, when switching to the bitmap.
+--
+-- KEYS[1] - bitmap of the online users
+-- KEYS[2] - set of the online user ids
+--
+-- Returns the number of users copied, -1 if the bitmap existed already.
+if redis.call('EXISTS', KEYS[1]) == 1 then
+    return -1
+end
+local copied = 0
+for _, id in ipairs(redis.call('SMEMBERS', KEYS[2])) do
+    if online_add(KEYS[1], id) then
+        copied = copied + 1
+    end
+end
+return copied
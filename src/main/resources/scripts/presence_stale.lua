@@ -0,0 +1,16 @@
+-- Find the users which were not seen for a while, at most a batch of them. They are expired by presence_expire.lua.
+--
+-- KEYS[1] - online user ids, a set or a bitmap depending on the backend (online_* functions of scripts/presence)
+-- KEYS[2] - sorted set of the online user ids scored by the time they were last seen
+-- ARGV[1] - current time in milliseconds
+-- ARGV[2] - users last seen at or before this time are stale
+-- ARGV[3] - maximum number of users to return
+--
+-- Users marked online without being seen (e.g. by a message) are given a last seen
+-- time first, so they expire as well unless a node holds a connection of theirs.
+if online_count(KEYS[1]) ~= redis.call('ZCARD', KEYS[2]) then
+    for _, id in ipairs(online_members(KEYS[1])) do
+        redis.call('ZADD', KEYS[2], 'NX', ARGV[1], id)
+    end
+end
+return redis.call('ZRANGEBYSCORE', KEYS[2], '-inf', ARGV[2], 'LIMIT', 0, ARGV[3])
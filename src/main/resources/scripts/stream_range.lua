@@ -0,0 +1,9 @@
+-- Read entries of a stream, oldest first, starting at a given id.
+-- See stream_reverse_range.lua for why this runs in a script.
+--
+-- KEYS[1] - stream of the room messages
+-- ARGV[1] - id of the oldest entry to return (inclusive)
+-- ARGV[2] - maximum number of entries
+--
+-- Returns the entries as [id, [field, value, ...]] pairs.
+return redis.call('XRANGE', KEYS[1], ARGV[1], '+', 'COUNT', ARGV[2])
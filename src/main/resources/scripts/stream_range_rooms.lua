@@ -0,0 +1,13 @@
+-- Read entries of several streams at once, oldest first, starting at the same id in each of them.
+-- See stream_reverse_range.lua for why this runs in a script.
+--
+-- KEYS    - streams of the room messages
+-- ARGV[1] - id of the oldest entry to return (inclusive)
+-- ARGV[2] - maximum number of entries of each stream
+--
+-- Returns the entries of each stream, in the order of the keys, as [id, [field, value, ...]] pairs.
+local rooms = {}
+for i, key in ipairs(KEYS) do
+    rooms[i] = redis.call('XRANGE', key, ARGV[1], '+', 'COUNT', ARGV[2])
+end
+return rooms
@@ -0,0 +1,10 @@
+-- Read entries of a stream, newest first, starting at a given id.
+-- Runs XREVRANGE in a script because the Lettuce version in use can't be given a bounded range by
+-- Spring Data Redis.
+--
+-- KEYS[1] - stream of the room messages
+-- ARGV[1] - id of the newest entry to return (inclusive), "+" for the newest entry of the stream
+-- ARGV[2] - maximum number of entries
+--
+-- Returns the entries as [id, [field, value, ...]] pairs.
+return redis.call('XREVRANGE', KEYS[1], ARGV[1], '-', 'COUNT', ARGV[2])
@@ -0,0 +1,29 @@
+package com.redisdeveloper.basicchat;
+
+import com.redisdeveloper.basicchat.model.MessageId;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SortedSetToStreamMigrationTest {
+
+    @Test
+    void dateScoresAreSeconds() {
+        assertEquals(1600000000000L, SortedSetToStreamMigration.getMillis(1600000000));
+    }
+
+    @Test
+    void idScoresAreTheTimeOfTheId() {
+        long millis = 1700000000123L;
+
+        long id = MessageId.of(millis, MessageId.MAX_NODE, MessageId.MAX_SEQUENCE);
+
+        assertEquals(millis, SortedSetToStreamMigration.getMillis(id));
+    }
+
+    @Test
+    void zeroScoreIsAfterTheFirstStreamId() {
+        // 0-0 is not a valid stream entry id.
+        assertEquals(1, SortedSetToStreamMigration.getMillis(0));
+    }
+}
@@ -0,0 +1,113 @@
+package com.redisdeveloper.basicchat.codec;
+
+import com.redisdeveloper.basicchat.model.Message;
+import com.redisdeveloper.basicchat.model.MessageId;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class BinaryMessageCodecTest {
+
+    private final BinaryMessageCodec codec = new BinaryMessageCodec();
+
+    @Test
+    void roundTripsMessageWithoutId() {
+        Message message = new Message("12", 1600000000, "hello", "0");
+
+        byte[] stored = codec.encode(message);
+
+        assertEquals(BinaryMessageCodec.VERSION_1, stored[0]);
+        assertMessage(message, BinaryMessageCodec.decode(stored, "0"));
+    }
+
+    @Test
+    void roundTripsMessageWithId() {
+        long id = MessageId.of(1700000000123L, MessageId.MAX_NODE, MessageId.MAX_SEQUENCE);
+        Message message = new Message("7", 1700000000, "hi", "1:2");
+        message.setId(id);
+
+        byte[] stored = codec.encode(message);
+
+        assertEquals(BinaryMessageCodec.VERSION_2, stored[0]);
+        Message decoded = BinaryMessageCodec.decode(stored, "1:2");
+        assertMessage(message, decoded);
+        assertEquals(id, decoded.getId());
+    }
+
+    @Test
+    void roundTripsDateBeforeTheTimeOfTheId() {
+        Message message = new Message("7", 1699999000, "sent earlier", "0");
+        message.setId(MessageId.firstIdAt(1700000000000L));
+
+        assertMessage(message, BinaryMessageCodec.decode(codec.encode(message), "0"));
+    }
+
+    @Test
+    void roundTripsSendersWhichAreNotUserIds() {
+        for (String from : new String[]{"alice", "", "012", "-1", "2147483648", "99999999999"}) {
+            Message message = new Message(from, 1600000000, "text", "0");
+
+            assertMessage(message, BinaryMessageCodec.decode(codec.encode(message), "0"));
+        }
+    }
+
+    @Test
+    void roundTripsGreatestUserId() {
+        Message message = new Message(String.valueOf(Integer.MAX_VALUE), 1600000000, "text", "0");
+
+        assertMessage(message, BinaryMessageCodec.decode(codec.encode(message), "0"));
+    }
+
+    @Test
+    void roundTripsMessageWithoutSender() {
+        Message message = new Message(null, 1600000000, "system", "0");
+        message.setId(MessageId.firstIdAt(1600000000000L));
+
+        Message decoded = BinaryMessageCodec.decode(codec.encode(message), "0");
+
+        assertNull(decoded.getFrom());
+        assertMessage(message, decoded);
+    }
+
+    @Test
+    void readsMissingTextBackAsEmpty() {
+        Message message = new Message("1", 1600000000, null, "0");
+
+        assertEquals("", BinaryMessageCodec.decode(codec.encode(message), "0").getMessage());
+    }
+
+    @Test
+    void roundTripsMultiByteText() {
+        Message message = new Message("1", 1600000000, "héllo 😀\nsecond line", "0");
+
+        assertMessage(message, BinaryMessageCodec.decode(codec.encode(message), "0"));
+    }
+
+    @Test
+    void rejectsTruncatedVarints() {
+        Message message = new Message("alice", 1600000000, "", "0");
+        message.setId(MessageId.of(1700000000123L, 3, 4));
+        byte[] stored = codec.encode(message);
+
+        // Cut inside the id, and inside the length-prefixed sender.
+        assertNull(BinaryMessageCodec.decode(Arrays.copyOf(stored, 3), "0"));
+        assertNull(BinaryMessageCodec.decode(Arrays.copyOf(stored, stored.length - 6), "0"));
+    }
+
+    @Test
+    void rejectsValuesWhichAreNotBinary() {
+        assertNull(BinaryMessageCodec.decode("{\"from\":\"1\"}".getBytes(), "0"));
+        assertNull(BinaryMessageCodec.decode(new byte[0], "0"));
+    }
+
+    private static void assertMessage(Message expected, Message actual) {
+        assertEquals(expected.getFrom(), actual.getFrom());
+        assertEquals(expected.getDate(), actual.getDate());
+        assertEquals(expected.getMessage() == null ? "" : expected.getMessage(), actual.getMessage());
+        assertEquals(expected.getRoomId(), actual.getRoomId());
+        assertEquals(expected.getId(), actual.getId());
+    }
+}
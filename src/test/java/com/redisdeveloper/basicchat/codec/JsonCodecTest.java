@@ -0,0 +1,53 @@
+package com.redisdeveloper.basicchat.codec;
+
+import com.redisdeveloper.basicchat.model.MessageType;
+import com.redisdeveloper.basicchat.model.PubSubMessage;
+import com.redisdeveloper.basicchat.model.User;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JsonCodecTest {
+
+    private final JsonCodec codec = new JsonCodec();
+
+    @Test
+    void readsUserEventsItWrote() {
+        byte[] json = codec.writeUserEvent(MessageType.USER_CONNECTED.value(), new User(7, "Joe", true));
+
+        PubSubMessage<User> event = codec.readUserEvent(new String(json, StandardCharsets.UTF_8));
+
+        assertEquals(MessageType.USER_CONNECTED.value(), event.getType());
+        assertEquals(7, event.getData().getId());
+        assertEquals("Joe", event.getData().getUsername());
+        assertTrue(event.getData().isOnline());
+    }
+
+    @Test
+    void readsUserEventsWithTheDataFirst() {
+        PubSubMessage<User> event = codec.readUserEvent(
+                "{\"data\":{\"id\":3,\"username\":\"Mary\",\"isOnline\":false},\"type\":\"user.disconnected\"}");
+
+        assertEquals(MessageType.USER_DISCONNECTED.value(), event.getType());
+        assertEquals(3, event.getData().getId());
+    }
+
+    @Test
+    void ignoresOtherEvents() {
+        assertNull(codec.readUserEvent("{\"type\":\"message\",\"data\":{\"id\":1,\"from\":\"1\"}}"));
+        assertNull(codec.readUserEvent("{\"data\":{\"id\":\"1:2\"},\"type\":\"show.room\"}"));
+        assertNull(codec.readUserEvent("{\"data\":{\"id\":1}}"));
+    }
+
+    @Test
+    void ignoresMalformedJson() {
+        assertNull(codec.readUserEvent("not json"));
+        assertNull(codec.readUserEvent("[1]"));
+        assertNull(codec.readUserEvent("{\"type\":1,\"data\":{}}"));
+        assertNull(codec.readUserEvent("{\"type\":\"user.connected\",\"data\":{\"id\":\"x\"}}"));
+    }
+}
@@ -0,0 +1,63 @@
+package com.redisdeveloper.basicchat.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class MessageCursorTest {
+
+    @Test
+    void decodesEncodedCursor() {
+        double score = MessageId.of(1700000000123L, 5, 6);
+
+        MessageCursor cursor = MessageCursor.decode(new MessageCursor(score, 3).encode());
+
+        assertEquals(score, cursor.getScore());
+        assertEquals(3, cursor.getSkip());
+    }
+
+    @Test
+    void encodesUrlSafe() {
+        String encoded = new MessageCursor(1600000000, 0).encode();
+
+        assertEquals(encoded, encoded.replaceAll("[^A-Za-z0-9_-]", ""));
+    }
+
+    @Test
+    void firstPageSkipsItsMessagesOfTheLastScore() {
+        MessageCursor cursor = MessageCursor.after(null, 42, 2);
+
+        assertEquals(42, cursor.getScore());
+        assertEquals(2, cursor.getSkip());
+    }
+
+    @Test
+    void addsSkipWhenThePageEndsOnTheSameScore() {
+        MessageCursor cursor = MessageCursor.after(new MessageCursor(42, 2), 42, 3);
+
+        assertEquals(42, cursor.getScore());
+        assertEquals(5, cursor.getSkip());
+    }
+
+    @Test
+    void restartsSkipOnALowerScore() {
+        MessageCursor cursor = MessageCursor.after(new MessageCursor(42, 2), 41, 1);
+
+        assertEquals(41, cursor.getScore());
+        assertEquals(1, cursor.getSkip());
+    }
+
+    @Test
+    void rejectsMalformedCursors() {
+        String noSeparator = Base64.getUrlEncoder().encodeToString("42".getBytes(StandardCharsets.UTF_8));
+        String notNumbers = Base64.getUrlEncoder().encodeToString("a:b".getBytes(StandardCharsets.UTF_8));
+
+        assertThrows(IllegalArgumentException.class, () -> MessageCursor.decode(noSeparator));
+        assertThrows(IllegalArgumentException.class, () -> MessageCursor.decode(notNumbers));
+        assertThrows(IllegalArgumentException.class, () -> MessageCursor.decode("not base64!"));
+    }
+}
@@ -0,0 +1,55 @@
+package com.redisdeveloper.basicchat.model;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MessageIdTest {
+
+    @Test
+    void packsTimestampNodeAndSequence() {
+        assertEquals(1L << 12, MessageId.of(MessageId.EPOCH_MILLIS + 1, 0, 0));
+        assertEquals(1L << 7, MessageId.of(MessageId.EPOCH_MILLIS, 1, 0));
+        assertEquals(1L, MessageId.of(MessageId.EPOCH_MILLIS, 0, 1));
+        assertEquals((1L << 12) - 1, MessageId.of(MessageId.EPOCH_MILLIS, MessageId.MAX_NODE, MessageId.MAX_SEQUENCE));
+    }
+
+    @Test
+    void readsTimestampBack() {
+        long millis = 1700000000123L;
+
+        long id = MessageId.of(millis, MessageId.MAX_NODE, MessageId.MAX_SEQUENCE);
+
+        assertEquals(millis, MessageId.getTimestampMillis(id));
+    }
+
+    @Test
+    void fitsInDoubleIn2089() {
+        long id = MessageId.of(3755289600000L, MessageId.MAX_NODE, MessageId.MAX_SEQUENCE);
+
+        assertTrue(id < 1L << 53);
+        assertEquals(id, (long) (double) id);
+    }
+
+    @Test
+    void firstIdAtIsBetweenTheIdsOfTheMillisecond() {
+        long millis = 1700000000123L;
+        long first = MessageId.firstIdAt(millis);
+
+        assertEquals(millis, MessageId.getTimestampMillis(first));
+        assertTrue(first > MessageId.of(millis - 1, MessageId.MAX_NODE, MessageId.MAX_SEQUENCE));
+        assertTrue(first <= MessageId.of(millis, 0, 0));
+    }
+
+    @Test
+    void idsAreGreaterThanDateScores() {
+        assertTrue(MessageId.firstIdAt(MessageId.EPOCH_MILLIS + 24 * 3600 * 1000) > MessageId.MAX_DATE_SCORE);
+    }
+
+    @Test
+    void readsDateOfIdsAndDateScores() {
+        assertEquals(1600000000L, MessageId.getDate(1600000000));
+        assertEquals(1700000000L, MessageId.getDate(MessageId.of(1700000000999L, 2, 3)));
+    }
+}
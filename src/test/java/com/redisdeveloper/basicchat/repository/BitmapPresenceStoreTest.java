@@ -0,0 +1,31 @@
+package com.redisdeveloper.basicchat.repository;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+class BitmapPresenceStoreTest {
+
+    @Test
+    void decodesBitsFromTheMostSignificantOne() {
+        byte[] bitmap = {(byte) 0x80, 0x01, 0x00, (byte) 0xFF, 0x42};
+
+        assertArrayEquals(new int[]{0, 15, 24, 25, 26, 27, 28, 29, 30, 31, 33, 38},
+                BitmapPresenceStore.decode(bitmap));
+    }
+
+    @Test
+    void decodesMissingOrEmptyBitmap() {
+        assertArrayEquals(new int[0], BitmapPresenceStore.decode(null));
+        assertArrayEquals(new int[0], BitmapPresenceStore.decode(new byte[0]));
+        assertArrayEquals(new int[0], BitmapPresenceStore.decode(new byte[3]));
+    }
+
+    @Test
+    void decodesHighOffsets() {
+        byte[] bitmap = new byte[125000];
+        bitmap[124999] = 0x01;
+
+        assertArrayEquals(new int[]{999999}, BitmapPresenceStore.decode(bitmap));
+    }
+}
@@ -0,0 +1,25 @@
+package com.redisdeveloper.basicchat.repository;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class StreamMessageStoreTest {
+
+    @Test
+    void previousIdDecrementsTheSequence() {
+        assertEquals("1700000000123-4", StreamMessageStore.previousId("1700000000123-5"));
+        assertEquals("1-18446744073709551614", StreamMessageStore.previousId("1-18446744073709551615"));
+    }
+
+    @Test
+    void previousIdOfTheFirstSequenceIsTheLastOfThePreviousMillisecond() {
+        assertEquals("1700000000122-18446744073709551615", StreamMessageStore.previousId("1700000000123-0"));
+    }
+
+    @Test
+    void noIdIsBeforeTheFirstOne() {
+        assertNull(StreamMessageStore.previousId("0-0"));
+    }
+}
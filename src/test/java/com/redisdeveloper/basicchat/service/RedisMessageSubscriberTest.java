@@ -0,0 +1,167 @@
+package com.redisdeveloper.basicchat.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RedisMessageSubscriberTest {
+
+    private final SseDeliveryService deliveryService = new SseDeliveryService(new SimpleMeterRegistry(), 16,
+            SseOverflowPolicy.DROP_OLDEST, 1, false);
+    private final RedisMessageSubscriber subscriber = new RedisMessageSubscriber(16);
+
+    @AfterEach
+    void stopWriter() {
+        deliveryService.destroy();
+    }
+
+    @Test
+    void parsesRoomOfMessages() {
+        RedisMessageSubscriber.Route route = RedisMessageSubscriber.parseRoute(
+                "{\"type\":\"message\",\"data\":{\"from\":\"1\",\"message\":\"hi\",\"roomId\":\"1:2\"}}");
+
+        assertEquals("1:2", route.roomId);
+    }
+
+    @Test
+    void parsesRoomWhenTheDataComesFirst() {
+        RedisMessageSubscriber.Route route = RedisMessageSubscriber.parseRoute(
+                "{\"data\":{\"roomId\":\"5\",\"nested\":{\"roomId\":\"6\"}},\"type\":\"message\"}");
+
+        assertEquals("5", route.roomId);
+    }
+
+    @Test
+    void parsesIdOfMessages() {
+        RedisMessageSubscriber.Route route = RedisMessageSubscriber.parseRoute(
+                "{\"type\":\"message\",\"data\":{\"id\":1234567890123,\"from\":\"1\",\"roomId\":\"5\"}}");
+
+        assertEquals(1234567890123L, route.messageId);
+        assertNull(RedisMessageSubscriber.parseRoute(
+                "{\"type\":\"show.room\",\"data\":{\"id\":\"1:2\",\"names\":[]}}").messageId);
+    }
+
+    @Test
+    void messagesWithoutRoomGoToTheGeneralRoom() {
+        assertEquals("0", RedisMessageSubscriber.parseRoute("{\"type\":\"message\",\"data\":{\"from\":\"1\"}}").roomId);
+    }
+
+    @Test
+    void otherEventsAreBroadcast() {
+        assertNull(RedisMessageSubscriber.parseRoute("{\"type\":\"user.connected\",\"data\":{\"id\":1}}"));
+        assertNull(RedisMessageSubscriber.parseRoute("{\"type\":\"message\"}"));
+        assertNull(RedisMessageSubscriber.parseRoute("not json"));
+    }
+
+    @Test
+    void deliversMessagesToTheMembersOfTheRoom() {
+        SseConnection member = attach(1, "0", "5");
+        SseConnection other = attach(2, "0");
+
+        subscriber.deliver(message("5"));
+
+        assertEquals(1, member.getQueueDepth());
+        assertEquals(0, other.getQueueDepth());
+    }
+
+    @Test
+    void deliversOtherEventsToEveryStream() {
+        SseConnection first = attach(1, "5");
+        SseConnection second = attach(2);
+
+        subscriber.deliver("{\"type\":\"user.connected\",\"data\":{\"id\":3}}".getBytes(StandardCharsets.UTF_8));
+
+        assertEquals(1, first.getQueueDepth());
+        assertEquals(1, second.getQueueDepth());
+    }
+
+    @Test
+    void deliversPrivateMessagesToBothParticipants() {
+        SseConnection participant = attach(1);
+        SseConnection other = attach(3);
+
+        subscriber.deliver(message("1:2"));
+
+        assertEquals(1, participant.getQueueDepth());
+        assertEquals(0, other.getQueueDepth());
+    }
+
+    @Test
+    void deliversToEveryStreamOfAUser() {
+        SseConnection first = attach(1, "5");
+        SseConnection second = attach(1);
+
+        subscriber.deliver(message("5"));
+
+        assertEquals(1, first.getQueueDepth());
+        assertEquals(1, second.getQueueDepth());
+    }
+
+    @Test
+    void unwatchesTheRoomsOfTheLastStreamOfAUser() {
+        SseConnection first = attach(1, "5");
+        SseConnection second = attach(1);
+
+        subscriber.detach(first);
+        assertTrue(subscriber.isRoomWatched("5"));
+        subscriber.detach(second);
+
+        assertFalse(subscriber.isRoomWatched("5"));
+    }
+
+    @Test
+    void deliversAMessageOnce() {
+        SseConnection member = attach(1, "5");
+
+        subscriber.deliver(message("5", 100));
+        subscriber.deliver(message("5", 100));
+        subscriber.deliver(message("5"));
+        subscriber.deliver(message("5"));
+
+        assertEquals(3, member.getQueueDepth());
+    }
+
+    @Test
+    void replaysMessagesOfTheHistoryOnlyOnce() {
+        attach(2, "5");
+        subscriber.deliver(message("5", 100));
+        subscriber.deliver(message("5", 101));
+        SseConnection resumed = connection(1);
+
+        subscriber.attach(resumed, Collections.singletonList("5"), 0,
+                Collections.singletonList(SseFrame.data(message("5", 100))), Collections.singleton(100L));
+
+        assertEquals(2, resumed.getQueueDepth());
+    }
+
+    private SseConnection attach(int userId, String... roomIds) {
+        SseConnection connection = connection(userId);
+        subscriber.attach(connection, roomIds.length == 0 ? Collections.emptyList() : Arrays.asList(roomIds));
+        return connection;
+    }
+
+    private SseConnection connection(int userId) {
+        // The writer never runs, so the delivered frames stay queued.
+        return new SseConnection(userId, new SseFrameEmitter(), 16, SseOverflowPolicy.DROP_OLDEST, task -> { },
+                deliveryService);
+    }
+
+    private static byte[] message(String roomId) {
+        return ("{\"type\":\"message\",\"data\":{\"from\":\"1\",\"message\":\"hi\",\"roomId\":\"" + roomId + "\"}}")
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] message(String roomId, long id) {
+        return ("{\"type\":\"message\",\"data\":{\"id\":" + id + ",\"from\":\"1\",\"roomId\":\"" + roomId + "\"}}")
+                .getBytes(StandardCharsets.UTF_8);
+    }
+}
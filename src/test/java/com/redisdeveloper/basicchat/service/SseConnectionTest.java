@@ -0,0 +1,156 @@
+package com.redisdeveloper.basicchat.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SseConnectionTest {
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final SseDeliveryService deliveryService = new SseDeliveryService(meterRegistry, 2,
+            SseOverflowPolicy.DROP_OLDEST, 1, false);
+    // Runs the drain tasks only when the test says so, as a writer which is busy with other connections.
+    private final Queue<Runnable> writerTasks = new ArrayDeque<>();
+    private final Executor writer = writerTasks::add;
+    private final RecordingEmitter emitter = new RecordingEmitter();
+
+    @AfterEach
+    void stopWriter() {
+        deliveryService.destroy();
+    }
+
+    @Test
+    void sendsQueuedFramesInOrder() {
+        SseConnection connection = open(SseOverflowPolicy.DROP_OLDEST);
+        SseFrame first = SseFrame.data("1");
+        SseFrame second = SseFrame.data("2");
+
+        connection.offer(first);
+        connection.offer(second);
+        runWriter();
+
+        assertEquals(list(first, second), emitter.sent);
+        assertEquals(0, connection.getQueueDepth());
+    }
+
+    @Test
+    void dropOldestKeepsTheNewestFrames() {
+        SseConnection connection = open(SseOverflowPolicy.DROP_OLDEST);
+        SseFrame second = SseFrame.data("2");
+        SseFrame third = SseFrame.data("3");
+
+        connection.offer(SseFrame.data("1"));
+        connection.offer(second);
+        connection.offer(third);
+        runWriter();
+
+        assertFalse(connection.isClosed());
+        assertEquals(list(second, third), emitter.sent);
+        assertEquals(1, meterRegistry.counter("chat.sse.messages.dropped").count());
+    }
+
+    @Test
+    void disconnectClosesTheSlowConsumer() {
+        SseConnection connection = open(SseOverflowPolicy.DISCONNECT);
+        AtomicInteger closeCallbacks = new AtomicInteger();
+        connection.onClose(closeCallbacks::incrementAndGet);
+
+        connection.offer(SseFrame.data("1"));
+        connection.offer(SseFrame.data("2"));
+        connection.offer(SseFrame.data("3"));
+        runWriter();
+
+        assertTrue(connection.isClosed());
+        assertEquals(1, closeCallbacks.get());
+        assertTrue(emitter.sent.isEmpty());
+        assertTrue(emitter.completed);
+        assertEquals(0, connection.getQueueDepth());
+        assertEquals(1, meterRegistry.counter("chat.sse.disconnects.slow").count());
+    }
+
+    @Test
+    void closedConnectionIgnoresFrames() {
+        SseConnection connection = open(SseOverflowPolicy.DROP_OLDEST);
+        connection.close(false);
+
+        connection.offer(SseFrame.data("1"));
+        runWriter();
+
+        assertEquals(0, connection.getQueueDepth());
+        assertTrue(emitter.sent.isEmpty());
+    }
+
+    @Test
+    void failedSendClosesTheConnection() {
+        SseConnection connection = open(SseOverflowPolicy.DROP_OLDEST);
+        emitter.failing = true;
+
+        connection.offer(SseFrame.data("1"));
+        runWriter();
+
+        assertTrue(connection.isClosed());
+        assertEquals(1, meterRegistry.counter("chat.sse.send.failures").count());
+    }
+
+    @Test
+    void closeCallbackRegisteredAfterCloseRunsAtOnce() {
+        SseConnection connection = open(SseOverflowPolicy.DROP_OLDEST);
+        connection.close(false);
+        AtomicInteger closeCallbacks = new AtomicInteger();
+
+        connection.onClose(closeCallbacks::incrementAndGet);
+
+        assertEquals(1, closeCallbacks.get());
+    }
+
+    private SseConnection open(SseOverflowPolicy overflowPolicy) {
+        return new SseConnection(1, emitter, 2, overflowPolicy, writer, deliveryService);
+    }
+
+    private void runWriter() {
+        Runnable task;
+        while ((task = writerTasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+    private static List<Object> list(SseFrame... frames) {
+        List<Object> bytes = new ArrayList<>();
+        for (SseFrame frame : frames) {
+            bytes.add(frame.getBytes());
+        }
+        return bytes;
+    }
+
+    private static class RecordingEmitter extends SseFrameEmitter {
+        private final List<Object> sent = new ArrayList<>();
+        private boolean failing;
+        private boolean completed;
+
+        @Override
+        public void send(SseFrame frame) throws IOException {
+            if (failing) {
+                throw new IOException("Broken pipe");
+            }
+            sent.add(frame.getBytes());
+        }
+
+        @Override
+        public synchronized void complete() {
+            completed = true;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.redisdeveloper.basicchat.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class SseEventIdTest {
+
+    @Test
+    void parsesItsOwnFormat() {
+        SseEventId id = SseEventId.parse(new SseEventId("k3x", 42, 1700000000123L).toString());
+
+        assertEquals("k3x", id.getNode());
+        assertEquals(42, id.getSequence());
+        assertEquals(1700000000123L, id.getTimestampMillis());
+    }
+
+    @Test
+    void rejectsIdsNotSentByANode() {
+        assertNull(SseEventId.parse(null));
+        assertNull(SseEventId.parse("12"));
+        assertNull(SseEventId.parse("-1-2"));
+        assertNull(SseEventId.parse("k3x-a-2"));
+        assertNull(SseEventId.parse("k3x-1-2-3"));
+    }
+
+    @Test
+    void keepsThePositionAtALaterTime() {
+        SseEventId id = new SseEventId("k3x", 42, 1700000000123L).withTimestamp(1700000005000L);
+
+        assertEquals("k3x-42-1700000005000", id.toString());
+    }
+}
@@ -0,0 +1,33 @@
+package com.redisdeveloper.basicchat.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.ServletServerHttpResponse;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SseFrameEmitterTest {
+
+    @Test
+    void respondsWithEventStream() {
+        ServletServerHttpResponse response = new ServletServerHttpResponse(new MockHttpServletResponse());
+
+        new SseFrameEmitter().extendResponse(response);
+
+        assertEquals(MediaType.TEXT_EVENT_STREAM, response.getHeaders().getContentType());
+    }
+
+    @Test
+    void keepsContentTypeSetByTheController() {
+        ServletServerHttpResponse response = new ServletServerHttpResponse(new MockHttpServletResponse());
+        MediaType utf8EventStream = new MediaType(MediaType.TEXT_EVENT_STREAM, StandardCharsets.UTF_8);
+        response.getHeaders().setContentType(utf8EventStream);
+
+        new SseFrameEmitter().extendResponse(response);
+
+        assertEquals(utf8EventStream, response.getHeaders().getContentType());
+    }
+}
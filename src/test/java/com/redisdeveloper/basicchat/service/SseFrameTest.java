@@ -0,0 +1,48 @@
+package com.redisdeveloper.basicchat.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class SseFrameTest {
+
+    @Test
+    void framesSingleLinePayload() {
+        assertFrame("data:{\"a\":1}\n\n", SseFrame.data("{\"a\":1}"));
+    }
+
+    @Test
+    void framesEveryLineOfThePayload() {
+        assertFrame("data:a\ndata:b\ndata:\ndata:c\n\n", SseFrame.data("a\nb\r\rc"));
+        assertFrame("data:a\ndata:b\n\n", SseFrame.data("a\r\nb"));
+    }
+
+    @Test
+    void framesId() {
+        assertFrame("id:42\ndata:x\n\n", SseFrame.event("42", "x".getBytes(StandardCharsets.UTF_8)));
+        assertFrame("id:42\ndata:x\ndata:y\n\n", SseFrame.event("42", "x\ny".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void framesComment() {
+        assertFrame(":ping\n\n", SseFrame.ofComment("ping"));
+    }
+
+    @Test
+    void dropsReceivedTime() {
+        SseFrame frame = SseFrame.event("1", new byte[]{'x'}, 123);
+        SseFrame replayed = frame.withoutReceivedTime();
+
+        assertEquals(123, frame.getReceivedNanos());
+        assertEquals(0, replayed.getReceivedNanos());
+        assertSame(frame.getBytes(), replayed.getBytes());
+        assertSame(replayed, replayed.withoutReceivedTime());
+    }
+
+    private static void assertFrame(String expected, SseFrame frame) {
+        assertEquals(expected, new String(frame.getBytes(), StandardCharsets.UTF_8));
+    }
+}
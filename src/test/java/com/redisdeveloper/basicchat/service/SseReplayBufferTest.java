@@ -0,0 +1,72 @@
+package com.redisdeveloper.basicchat.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SseReplayBufferTest {
+
+    private final SseReplayBuffer buffer = new SseReplayBuffer(4);
+
+    @Test
+    void collectsTheEventsAfterTheGivenOne() {
+        addEvents(1, 3);
+
+        assertEquals(Arrays.asList("2", "3"), data(buffer.collectAfter(1, route -> true)));
+        assertEquals(Collections.emptyList(), data(buffer.collectAfter(3, route -> true)));
+    }
+
+    @Test
+    void keepsOnlyTheLastEvents() {
+        addEvents(1, 6);
+
+        assertEquals(Arrays.asList("3", "4", "5", "6"), data(buffer.collectAfter(0, route -> true)));
+        assertFalse(buffer.covers(1));
+        assertTrue(buffer.covers(2));
+        assertTrue(buffer.covers(6));
+        assertFalse(buffer.covers(7));
+    }
+
+    @Test
+    void filtersByRoute() {
+        buffer.add(1, SseFrame.data("1"), new RedisMessageSubscriber.Route("5", false, 100L));
+        buffer.add(2, SseFrame.data("2"), null);
+        buffer.add(3, SseFrame.data("3"), new RedisMessageSubscriber.Route("6", false, 101L));
+
+        assertEquals(Arrays.asList("1", "2"),
+                data(buffer.collectAfter(0, route -> route == null || "5".equals(route.roomId))));
+    }
+
+    @Test
+    void forgetsTheMessagesOfEvictedEvents() {
+        buffer.add(1, SseFrame.data("1"), new RedisMessageSubscriber.Route("5", false, 100L));
+        assertTrue(buffer.containsMessage(100));
+
+        addEvents(2, 5);
+
+        assertFalse(buffer.containsMessage(100));
+    }
+
+    private void addEvents(long from, long to) {
+        for (long sequence = from; sequence <= to; sequence++) {
+            buffer.add(sequence, SseFrame.data(String.valueOf(sequence)), null);
+        }
+    }
+
+    private static List<String> data(List<SseFrame> frames) {
+        List<String> data = new ArrayList<>();
+        for (SseFrame frame : frames) {
+            String text = new String(frame.getBytes(), StandardCharsets.UTF_8);
+            data.add(text.substring("data:".length()).trim());
+        }
+        return data;
+    }
+}